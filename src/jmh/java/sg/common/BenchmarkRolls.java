@@ -0,0 +1,32 @@
+package sg.common;
+
+import com.google.common.collect.ImmutableSortedMultiset;
+import com.google.common.collect.Multiset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Deterministic roll sets shared by the benchmarks, so runs are comparable between builds.
+final class BenchmarkRolls {
+  static final int COUNT = 256;
+  private static final long SEED = 0x5ac4ed;
+
+  private BenchmarkRolls() {}
+
+  static List<Multiset<Integer>> random(int dice, int dieSize) {
+    Random random = new Random(SEED);
+    List<Multiset<Integer>> rollSets = new ArrayList<>(COUNT);
+    for (int i = 0; i < COUNT; i++) {
+      ImmutableSortedMultiset.Builder<Integer> builder = ImmutableSortedMultiset.naturalOrder();
+      for (int d = 0; d < dice; d++) {
+        builder.add(random.nextInt(dieSize) + 1);
+      }
+      rollSets.add(builder.build());
+    }
+    return rollSets;
+  }
+
+  static Multiset<Integer> repeated(int roll, int dice) {
+    return ImmutableSortedMultiset.<Integer>naturalOrder().addCopies(roll, dice).build();
+  }
+}
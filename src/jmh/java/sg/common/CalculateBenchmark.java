@@ -0,0 +1,49 @@
+package sg.common;
+
+import com.google.common.collect.Multiset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// SacredGeometryCalculator.calculate on random rolls, as the bot sees them.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CalculateBenchmark {
+  @Param({"4", "8", "12", "20"})
+  int dice;
+
+  @Param({"6", "8"})
+  int dieSize;
+
+  @Param({"ONE", "THREE", "FIVE", "SEVEN", "NINE"})
+  Targets level;
+
+  private List<Multiset<Integer>> rollSets;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    rollSets = new ArrayList<>(BenchmarkRolls.random(dice, dieSize));
+  }
+
+  @Benchmark
+  public String calculate() {
+    next = (next + 1) % rollSets.size();
+    return SacredGeometryCalculator.calculate(rollSets.get(next), level);
+  }
+}
@@ -0,0 +1,97 @@
+package sg.common;
+
+import com.google.common.collect.Multiset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// FileUtil encoding and decoding, and infix formatting of the resulting expressions.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+  @Param({"4", "8", "14"})
+  int dice;
+
+  @Param({"6", "8"})
+  int dieSize;
+
+  private List<Multiset<Integer>> rollSets;
+  private List<byte[]> rollSetBytes;
+  private List<PostfixExpression> expressions;
+  private List<byte[]> expressionBytes;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    rollSets = BenchmarkRolls.random(dice, dieSize);
+    rollSetBytes = new ArrayList<>();
+    expressions = new ArrayList<>();
+    expressionBytes = new ArrayList<>();
+
+    for (Multiset<Integer> rollSet : rollSets) {
+      rollSetBytes.add(FileUtil.rollSetToBytes(rollSet));
+
+      // Any expression over the roll set will do; a chain of additions keeps setup cheap.
+      StringBuilder postfix = new StringBuilder();
+      for (Integer roll : rollSet) {
+        postfix.append(roll);
+        if (postfix.length() > 1) {
+          postfix.append(Operators.ADD.character());
+        }
+      }
+      PostfixExpression expression = PostfixExpression.create(postfix.toString());
+      expressions.add(expression);
+      expressionBytes.add(FileUtil.expressionToBytes(expression));
+    }
+  }
+
+  private int advance() {
+    next = (next + 1) % rollSets.size();
+    return next;
+  }
+
+  @Benchmark
+  public byte[] rollSetToBytes() {
+    return FileUtil.rollSetToBytes(rollSets.get(advance()));
+  }
+
+  @Benchmark
+  public Multiset<Integer> bytesToRollSet() {
+    return FileUtil.bytesToRollSet(rollSetBytes.get(advance()));
+  }
+
+  @Benchmark
+  public byte[] expressionToBytes() {
+    return FileUtil.expressionToBytes(expressions.get(advance()));
+  }
+
+  @Benchmark
+  public PostfixExpression bytesToExpression() {
+    return FileUtil.bytesToExpression(expressionBytes.get(advance()));
+  }
+
+  @Benchmark
+  public String toInfix() {
+    return ExpressionUtil.toInfix(expressions.get(advance()));
+  }
+
+  @Benchmark
+  public String postfixToInfix() {
+    return ExpressionUtil.postfixToInfix(expressions.get(advance()).expressionString());
+  }
+}
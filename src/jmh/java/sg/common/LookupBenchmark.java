@@ -0,0 +1,76 @@
+package sg.common;
+
+import com.google.common.collect.Multiset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// calculate on roll sets chosen to take one particular path through the tables.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LookupBenchmark {
+  public enum Path {
+    // The roll set is exactly a pattern of the level.
+    HIT,
+    // The roll set is in the level's failure table.
+    MISS,
+    // A pattern of the level plus a zero pattern plus one extra die.
+    PATTERN_ZERO
+  }
+
+  @Param({"ONE", "TWO", "THREE", "FOUR", "FIVE", "SIX", "SEVEN", "EIGHT", "NINE"})
+  Targets level;
+
+  @Param({"HIT", "MISS", "PATTERN_ZERO"})
+  Path path;
+
+  private List<Multiset<Integer>> rollSets;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    SolutionTable table = SacredGeometryCalculator.table(level);
+    SolutionTable zeroTable = SacredGeometryCalculator.table(Targets.ZERO);
+    rollSets = new ArrayList<>();
+
+    switch (path) {
+      case HIT -> {
+        for (int i = 0; i < table.patternCount(); i++) {
+          rollSets.add(PackedRollSet.toRollSet(table.pattern(i)));
+        }
+      }
+      case MISS -> {
+        for (int i = 0; i < table.failureCount(); i++) {
+          rollSets.add(PackedRollSet.toRollSet(table.failure(i)));
+        }
+      }
+      case PATTERN_ZERO -> {
+        for (int i = 0; i < table.patternCount(); i++) {
+          long rollSet = table.pattern(i) + zeroTable.pattern(i % zeroTable.patternCount());
+          rollSets.add(PackedRollSet.toRollSet(rollSet + PackedRollSet.of(new int[] {0, 0, 0, 1})));
+        }
+      }
+    }
+  }
+
+  @Benchmark
+  public String calculate() {
+    next = (next + 1) % rollSets.size();
+    return SacredGeometryCalculator.calculate(rollSets.get(next), level);
+  }
+}
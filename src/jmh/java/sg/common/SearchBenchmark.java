@@ -0,0 +1,56 @@
+package sg.common;
+
+import com.google.common.collect.Multiset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// calculateWithoutLookup, i.e. the cost of a roll set the tables don't cover.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SearchBenchmark {
+  @Param({"8", "13", "20"})
+  int dice;
+
+  @Param({"6", "8"})
+  int dieSize;
+
+  @Param({"SEVEN", "NINE"})
+  Targets level;
+
+  private List<Multiset<Integer>> rollSets;
+  private Multiset<Integer> ones;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    rollSets = BenchmarkRolls.random(dice, dieSize);
+    ones = BenchmarkRolls.repeated(1, dice);
+  }
+
+  @Benchmark
+  public PostfixExpression random() {
+    next = (next + 1) % rollSets.size();
+    return SacredGeometryCalculator.calculateWithoutLookup(rollSets.get(next), level);
+  }
+
+  // All 1s is the slowest roll for its size; twenty of them at level 9 is the README's worst case.
+  @Benchmark
+  public PostfixExpression allOnes() {
+    return SacredGeometryCalculator.calculateWithoutLookup(ones, level);
+  }
+}
@@ -0,0 +1,15 @@
+package sg.common;
+
+// Lets one thread stop a solve running on another without interrupting it. The search polls the
+// token along with the rest of its SearchBudget.
+public final class CancellationToken {
+  private volatile boolean cancelled;
+
+  public void cancel() {
+    cancelled = true;
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+}
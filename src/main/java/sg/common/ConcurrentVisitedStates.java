@@ -0,0 +1,84 @@
+package sg.common;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Fixed-capacity StateSet shared by the tasks of a parallel search. Slots are claimed with CAS; as
+// in VisitedStates, a state whose probe window is full evicts the entry in its home slot.
+final class ConcurrentVisitedStates implements StateSet {
+  static final int DEFAULT_CAPACITY =
+      Integer.getInteger("sg.visitedStates.sharedCapacity", 1 << 20);
+
+  private static final int MAX_PROBES = 16;
+  private static final long EMPTY = 0;
+
+  private final AtomicLongArray table;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  ConcurrentVisitedStates() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  ConcurrentVisitedStates(int capacity) {
+    if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException(
+          "The visited state capacity must be a power of two (was " + capacity + ").");
+    }
+    table = new AtomicLongArray(capacity);
+  }
+
+  @Override
+  public boolean add(long hash) {
+    if (hash == EMPTY) {
+      hash = 1;
+    }
+
+    int mask = table.length() - 1;
+    int home = (int) hash & mask;
+    for (int probe = 0, index = home; probe < MAX_PROBES; ) {
+      long current = table.get(index);
+      if (current == hash) {
+        hits.increment();
+        return false;
+      }
+      if (current == EMPTY) {
+        if (table.compareAndSet(index, EMPTY, hash)) {
+          misses.increment();
+          return true;
+        }
+        continue; // Lost the race for this slot; look at what was written there.
+      }
+      probe++;
+      index = (index + 1) & mask;
+    }
+
+    table.set(home, hash);
+    misses.increment();
+    evictions.increment();
+    return true;
+  }
+
+  @Override
+  public long hits() {
+    return hits.sum();
+  }
+
+  @Override
+  public long misses() {
+    return misses.sum();
+  }
+
+  @Override
+  public long evictions() {
+    return evictions.sum();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "ConcurrentVisitedStates{capacity=%d, hits=%d, misses=%d, evictions=%d}",
+        table.length(), hits(), misses(), evictions());
+  }
+}
@@ -0,0 +1,403 @@
+package sg.common;
+
+import com.google.common.collect.Multiset;
+import com.google.common.math.LongMath;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+// SearchEngine over exact rationals, so that a division need not come out even. Each value is a
+// numerator and denominator in parallel arrays, kept in lowest terms with a positive denominator,
+// so equal values are stored (and hashed) alike. Integer pairs take the same shortcuts as
+// SearchEngine, and only fractions pay for a gcd.
+//
+// Every value is still non-negative: a difference is taken the way round that gives |a - b|, and
+// both a / b and b / a are tried. A merge whose numerator or denominator would overflow a long is
+// skipped and counted, and a search that skipped any and found nothing reports it on its control,
+// since it proves nothing.
+//
+// A failure here is meant as a proof, so unlike SearchEngine's hashed memo, the visited set holds
+// each state itself: its values as sorted numerator / denominator pairs. A hit is only ever a
+// state that really was explored. Past MAX_STATES states, new ones are no longer recorded, which
+// costs repeated work but never skips a state.
+final class ExactSearchEngine {
+  static final int MAX_STATES = Integer.getInteger("sg.exact.maxStates", 1 << 20);
+
+  private static final int CHECK_MASK = (1 << 12) - 1;
+
+  private final long[] targets;
+  private final SearchControl control;
+
+  // Live values, in no particular order; slots holds the expression node for each value.
+  private final long[] numerators;
+  private final long[] denominators;
+  private final int[] slots;
+  private int size;
+  private long hash;
+
+  // Expression nodes, as in SearchEngine.
+  private final int leafCount;
+  private final PostfixExpression[] leafExpressions;
+  private final int[] lefts;
+  private final int[] rights;
+  private final Operators[] operators;
+
+  private final Set<State> visited = new HashSet<>();
+
+  // The result of the last arithmetic helper to succeed.
+  private long numerator;
+  private long denominator;
+
+  private PostfixExpression result;
+  private long nodes;
+  private long memoHits;
+  private int maxDepth;
+  private long overflows;
+
+  ExactSearchEngine(Multiset<Integer> rollSet, Set<Long> targetSet, SearchControl control) {
+    this.targets = SearchEngine.toArray(targetSet);
+    this.control = control;
+
+    leafCount = rollSet.size();
+    numerators = rollSet.stream().mapToLong(Integer::longValue).toArray();
+    denominators = new long[leafCount];
+    slots = new int[leafCount];
+    leafExpressions =
+        rollSet.stream().map(PostfixExpression::create).toArray(PostfixExpression[]::new);
+    lefts = new int[Math.max(2 * leafCount - 1, 0)];
+    rights = new int[lefts.length];
+    operators = new Operators[lefts.length];
+
+    for (int i = 0; i < leafCount; i++) {
+      denominators[i] = 1;
+      slots[i] = i;
+      hash += key(numerators[i], 1);
+    }
+    size = leafCount;
+  }
+
+  // The expression reaching a target, or null if there is none.
+  PostfixExpression search() {
+    if (size > 0) {
+      search(0);
+    }
+    control.finished(nodes & CHECK_MASK, memoHits, maxDepth);
+    if (result == null && overflows > 0) {
+      control.overflowed();
+    }
+    return result;
+  }
+
+  // Merges skipped because they overflowed.
+  long overflows() {
+    return overflows;
+  }
+
+  long nodes() {
+    return nodes;
+  }
+
+  private boolean search(int depth) {
+    if (control.isStopped()) {
+      return false;
+    }
+    if ((++nodes & CHECK_MASK) == 0 && control.record(CHECK_MASK + 1)) {
+      return false;
+    }
+    if (!visit()) {
+      memoHits++;
+      return false;
+    }
+    if (depth > maxDepth) {
+      maxDepth = depth;
+    }
+
+    if (size == 1) {
+      if (denominators[0] != 1 || !isTarget(numerators[0])) {
+        return false;
+      }
+      result = buildExpression(depth);
+      return true;
+    }
+
+    for (int i = 0; i < size; i++) {
+      if (hasEarlierDuplicate(i, -1)) {
+        continue;
+      }
+      for (int j = i + 1; j < size; j++) {
+        if (hasEarlierDuplicate(j, i)) {
+          continue;
+        }
+        if (mergeAll(depth, i, j)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  // Tries every operation on the values at i and j, skipping any whose result an earlier one
+  // already gave, as SearchEngine.mergeAll does.
+  private boolean mergeAll(int depth, int i, int j) {
+    long p = numerators[i];
+    long q = denominators[i];
+    long r = numerators[j];
+    long s = denominators[j];
+
+    boolean hasSum = add(p, q, r, s);
+    long sumN = numerator;
+    long sumD = denominator;
+    if (hasSum && merge(depth, i, j, Operators.ADD, sumN, sumD)) {
+      return true;
+    }
+
+    // The sign of the difference decides which way round it is taken.
+    boolean hasDifference = subtract(p, q, r, s);
+    long differenceN = Math.abs(numerator);
+    long differenceD = denominator;
+    boolean swapped = numerator < 0;
+    if (hasDifference
+        && !same(hasSum, sumN, sumD, differenceN, differenceD)
+        && (swapped
+            ? merge(depth, j, i, Operators.SUB, differenceN, differenceD)
+            : merge(depth, i, j, Operators.SUB, differenceN, differenceD))) {
+      return true;
+    }
+
+    boolean hasProduct = multiply(p, q, r, s);
+    long productN = numerator;
+    long productD = denominator;
+    if (hasProduct
+        && !same(hasSum, sumN, sumD, productN, productD)
+        && !same(hasDifference, differenceN, differenceD, productN, productD)
+        && merge(depth, i, j, Operators.MULT, productN, productD)) {
+      return true;
+    }
+
+    boolean hasQuotient = r != 0 && multiply(p, q, s, r);
+    long quotientN = numerator;
+    long quotientD = denominator;
+    if (hasQuotient
+        && !same(hasSum, sumN, sumD, quotientN, quotientD)
+        && !same(hasDifference, differenceN, differenceD, quotientN, quotientD)
+        && !same(hasProduct, productN, productD, quotientN, quotientD)
+        && merge(depth, i, j, Operators.DIV, quotientN, quotientD)) {
+      return true;
+    }
+
+    if (p == 0 || !multiply(r, s, q, p)) {
+      return false;
+    }
+    long inverseN = numerator;
+    long inverseD = denominator;
+    return !same(hasSum, sumN, sumD, inverseN, inverseD)
+        && !same(hasDifference, differenceN, differenceD, inverseN, inverseD)
+        && !same(hasProduct, productN, productD, inverseN, inverseD)
+        && !same(hasQuotient, quotientN, quotientD, inverseN, inverseD)
+        && merge(depth, j, i, Operators.DIV, inverseN, inverseD);
+  }
+
+  private static boolean same(boolean made, long n1, long d1, long n2, long d2) {
+    return made && n1 == n2 && d1 == d2;
+  }
+
+  // Replaces the values at i and j with their combination, recurses, then restores the stack.
+  // The merge's expression is i's operator j's.
+  private boolean merge(int depth, int i, int j, Operators operator, long n, long d) {
+    int node = leafCount + depth;
+    lefts[node] = slots[i];
+    rights[node] = slots[j];
+    operators[node] = operator;
+
+    long savedHash = hash;
+    hash +=
+        key(n, d)
+            - key(numerators[i], denominators[i])
+            - key(numerators[j], denominators[j]);
+
+    int last = size - 1;
+    long savedN = numerators[j];
+    long savedD = denominators[j];
+    int savedSlot = slots[j];
+    numerators[j] = numerators[last];
+    denominators[j] = denominators[last];
+    slots[j] = slots[last];
+
+    // If i was the last value, it has just been swapped into j.
+    int target = i == last ? j : i;
+    long savedTargetN = numerators[target];
+    long savedTargetD = denominators[target];
+    int savedTargetSlot = slots[target];
+    numerators[target] = n;
+    denominators[target] = d;
+    slots[target] = node;
+    size = last;
+
+    boolean found = search(depth + 1);
+
+    size = last + 1;
+    numerators[target] = savedTargetN;
+    denominators[target] = savedTargetD;
+    slots[target] = savedTargetSlot;
+    numerators[last] = numerators[j];
+    denominators[last] = denominators[j];
+    slots[last] = slots[j];
+    numerators[j] = savedN;
+    denominators[j] = savedD;
+    slots[j] = savedSlot;
+    hash = savedHash;
+
+    return found;
+  }
+
+  // p/q + r/s into numerator and denominator; false if it overflows.
+  private boolean add(long p, long q, long r, long s) {
+    try {
+      if (q == 1 && s == 1) {
+        return set(Math.addExact(p, r), 1);
+      }
+      return reduce(
+          Math.addExact(Math.multiplyExact(p, s), Math.multiplyExact(r, q)),
+          Math.multiplyExact(q, s));
+    } catch (ArithmeticException e) {
+      overflows++;
+      return false;
+    }
+  }
+
+  // p/q - r/s, which may be negative.
+  private boolean subtract(long p, long q, long r, long s) {
+    try {
+      if (q == 1 && s == 1) {
+        return set(p - r, 1);
+      }
+      return reduce(
+          Math.subtractExact(Math.multiplyExact(p, s), Math.multiplyExact(r, q)),
+          Math.multiplyExact(q, s));
+    } catch (ArithmeticException e) {
+      overflows++;
+      return false;
+    }
+  }
+
+  // p/q * r/s, with both already in lowest terms, so only the cross terms can share factors.
+  // s must not be 0; multiplying by s/r divides by r/s.
+  private boolean multiply(long p, long q, long r, long s) {
+    try {
+      if (q == 1 && s == 1) {
+        return set(Math.multiplyExact(p, r), 1);
+      }
+      long g1 = LongMath.gcd(p, s);
+      long g2 = LongMath.gcd(r, q);
+      return set(
+          Math.multiplyExact(p / g1, r / g2), Math.multiplyExact(q / g2, s / g1));
+    } catch (ArithmeticException e) {
+      overflows++;
+      return false;
+    }
+  }
+
+  private boolean reduce(long n, long d) {
+    long g = LongMath.gcd(Math.abs(n), d);
+    return set(n / g, d / g);
+  }
+
+  private boolean set(long n, long d) {
+    if (n == 0) {
+      d = 1;
+    }
+    numerator = n;
+    denominator = d;
+    return true;
+  }
+
+  // Records the current state, returning false if it was already explored.
+  private boolean visit() {
+    State state = new State(sortedState(), hash);
+    if (visited.contains(state)) {
+      return false;
+    }
+    if (visited.size() < MAX_STATES) {
+      visited.add(state);
+    }
+    return true;
+  }
+
+  // The live values as numerator, denominator pairs in ascending order, so that equal states
+  // give equal arrays whatever order their values are held in.
+  private long[] sortedState() {
+    long[] pairs = new long[2 * size];
+    for (int i = 0; i < size; i++) {
+      long n = numerators[i];
+      long d = denominators[i];
+      int k = i;
+      for (; k > 0; k--) {
+        long previousN = pairs[2 * k - 2];
+        long previousD = pairs[2 * k - 1];
+        if (previousN < n || (previousN == n && previousD <= d)) {
+          break;
+        }
+        pairs[2 * k] = previousN;
+        pairs[2 * k + 1] = previousD;
+      }
+      pairs[2 * k] = n;
+      pairs[2 * k + 1] = d;
+    }
+    return pairs;
+  }
+
+  private static long key(long n, long d) {
+    return d == 1 ? StateHash.key(n) : StateHash.key(n ^ StateHash.key(d));
+  }
+
+  private boolean hasEarlierDuplicate(int index, int skip) {
+    for (int k = 0; k < index; k++) {
+      if (k != skip
+          && numerators[k] == numerators[index]
+          && denominators[k] == denominators[index]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean isTarget(long value) {
+    for (long target : targets) {
+      if (target == value) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // A visited state, hashed by the engine's running state hash and compared in full.
+  private static final class State {
+    private final long[] pairs;
+    private final int hash;
+
+    State(long[] pairs, long hash) {
+      this.pairs = pairs;
+      this.hash = Long.hashCode(hash);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof State && Arrays.equals(pairs, ((State) o).pairs);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  private PostfixExpression buildExpression(int depth) {
+    PostfixExpression[] nodes = new PostfixExpression[leafCount + depth];
+    System.arraycopy(leafExpressions, 0, nodes, 0, leafCount);
+    for (int node = leafCount; node < nodes.length; node++) {
+      nodes[node] =
+          PostfixExpression.createExact(nodes[lefts[node]], nodes[rights[node]], operators[node]);
+    }
+    return nodes[slots[0]];
+  }
+}
@@ -5,66 +5,92 @@ import static sg.common.Operators.ADD_SUB;
 import static sg.common.Operators.DIV;
 import static sg.common.Operators.MULT;
 import static sg.common.Operators.MULT_DIV;
-import static sg.common.Operators.OPS;
 import static sg.common.Operators.SUB;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+
 public class ExpressionUtil {
   static String postfixToInfix(String postfix) {
-    return buildInOrder(buildTree(postfix), false).toString();
-  }
-
-  static TreeNode<Character> buildTree(String postfix) {
-    char value = postfix.charAt(postfix.length() - 1);
-    TreeNode<Character> left = null;
-    TreeNode<Character> right = null;
-
-    if (OPS.contains(Operators.fromCharacter(value))) {
-      right = buildTree(postfix.substring(0, postfix.length() - 1));
-      left = buildTree(postfix.substring(0, postfix.length() - 1 - right.size()));
-    }
-    return new TreeNode<>(value, left, right);
+    return toInfix(PostfixExpression.create(postfix));
   }
 
-  static StringBuilder buildInOrder(TreeNode<Character> root, boolean invertOp) {
+  // One pass over the tree, with an explicit stack of what is still to be written: either a node
+  // (and whether its operator is inverted by a parent it's subtracted from or divided by) or
+  // literal text.
+  public static String toInfix(PostfixExpression expression) {
     StringBuilder stringBuilder = new StringBuilder();
+    Deque<Part> parts = new ArrayDeque<>();
+    parts.push(new Part(expression, false));
 
-    Operators valueOp = Operators.fromCharacter(root.value());
-    Operators leftOp = root.left() != null ? Operators.fromCharacter(root.left().value()) : null;
-    Operators rightOp = root.right() != null ? Operators.fromCharacter(root.right().value()) : null;
-
-    if (root.left() != null) {
-      boolean parentheses = MULT_DIV.contains(valueOp) && ADD_SUB.contains(leftOp);
-      stringBuilder
-          .append(parentheses ? "(" : "")
-          .append(buildInOrder(root.left(), false))
-          .append(parentheses ? ")" : "");
-    }
+    while (!parts.isEmpty()) {
+      Part part = parts.pop();
+      if (part.text != null) {
+        stringBuilder.append(part.text);
+        continue;
+      }
 
-    boolean space = (valueOp != null);
-    stringBuilder.append(space ? " " : "");
-    if (invertOp && valueOp != null) {
-      switch (valueOp) {
-        case ADD -> stringBuilder.append(SUB.character());
-        case SUB -> stringBuilder.append(ADD.character());
-        case MULT -> stringBuilder.append(DIV.character());
-        case DIV -> stringBuilder.append(MULT.character());
+      PostfixExpression root = part.node;
+      if (root.isLeaf()) {
+        stringBuilder.append(root.expressionResult());
+        continue;
       }
-    } else {
-      stringBuilder.append(root.value());
-    }
-    stringBuilder.append(space ? " " : "");
 
-    if (root.right() != null) {
-      boolean parentheses = MULT_DIV.contains(valueOp) && ADD_SUB.contains(rightOp);
+      Operators valueOp = root.operator();
+      Operators leftOp = root.left().operator();
+      Operators rightOp = root.right().operator();
+
+      // Pushed in reverse: left operand, operator, right operand.
+      boolean rightParentheses = MULT_DIV.contains(valueOp) && ADD_SUB.contains(rightOp);
       boolean invertChildOp =
           (valueOp == DIV && MULT_DIV.contains(rightOp))
               || (valueOp == SUB && ADD_SUB.contains(rightOp));
-      stringBuilder
-          .append(parentheses ? "(" : "")
-          .append(buildInOrder(root.right(), invertChildOp))
-          .append(parentheses ? ")" : "");
+      pushParenthesized(parts, new Part(root.right(), invertChildOp), rightParentheses);
+
+      Operators shownOp = part.invert ? inverse(valueOp) : valueOp;
+      parts.push(new Part(" " + shownOp.character() + " "));
+
+      boolean leftParentheses = MULT_DIV.contains(valueOp) && ADD_SUB.contains(leftOp);
+      pushParenthesized(parts, new Part(root.left(), false), leftParentheses);
     }
 
-    return stringBuilder;
+    return stringBuilder.toString();
+  }
+
+  private static void pushParenthesized(Deque<Part> parts, Part part, boolean parentheses) {
+    if (parentheses) {
+      parts.push(new Part(")"));
+    }
+    parts.push(part);
+    if (parentheses) {
+      parts.push(new Part("("));
+    }
+  }
+
+  private static Operators inverse(Operators op) {
+    return switch (op) {
+      case ADD -> SUB;
+      case SUB -> ADD;
+      case MULT -> DIV;
+      case DIV -> MULT;
+    };
+  }
+
+  private static final class Part {
+    private final PostfixExpression node;
+    private final boolean invert;
+    private final String text;
+
+    Part(PostfixExpression node, boolean invert) {
+      this.node = node;
+      this.invert = invert;
+      this.text = null;
+    }
+
+    Part(String text) {
+      this.node = null;
+      this.invert = false;
+      this.text = text;
+    }
   }
 }
@@ -94,35 +94,45 @@ public class FileUtil {
     return bytes;
   }
 
+  // Builds the expression tree straight from the nibbles, without going through a string.
   static PostfixExpression bytesToExpression(byte[] bytes) {
-    StringBuilder builder = new StringBuilder();
-    for (byte b : bytes) {
-      int high = (b & 0xf0) >> 4;
-      int low = b & 0xf;
-      builder.append(
-          switch (high) {
-            case 0,1,2,3,4,5,6,7,8,9 -> high;
-            case 10 -> '+';
-            case 11 -> '-';
-            case 12 -> '*';
-            case 13 -> '/';
-            default -> "";
-          });
-      builder.append(
-          switch (low) {
-            case 0,1,2,3,4,5,6,7,8,9 -> low;
-            case 10 -> '+';
-            case 11 -> '-';
-            case 12 -> '*';
-            case 13 -> '/';
-            default -> "";
-          });
+    PostfixExpression[] stack = new PostfixExpression[bytes.length * 2];
+    int size = 0;
+    for (int i = 0; i < bytes.length * 2; i++) {
+      int nibble = i % 2 == 0 ? (bytes[i/2] & 0xf0) >> 4 : bytes[i/2] & 0xf;
+      if (nibble > 13) {
+        // Padding.
+        continue;
+      }
+      Operators operator = switch (nibble) {
+        case 10 -> Operators.ADD;
+        case 11 -> Operators.SUB;
+        case 12 -> Operators.MULT;
+        case 13 -> Operators.DIV;
+        default -> null;
+      };
+      if (operator == null) {
+        stack[size++] = PostfixExpression.create(nibble);
+      } else {
+        if (size < 2) {
+          throw new IllegalStateException("Invalid expression bytes.");
+        }
+        stack[size - 2] = PostfixExpression.create(stack[size - 2], stack[size - 1], operator);
+        size--;
+      }
+    }
+    if (size != 1) {
+      throw new IllegalStateException("Invalid expression bytes.");
     }
-    return PostfixExpression.create(builder.toString());
+    return stack[0];
   }
 
   static void writeSolutionFile(String filename, Map<Multiset<Integer>, PostfixExpression> map) throws IOException {
-    try (OutputStream out = new FileOutputStream(RESOURCE_PATH + filename)) {
+    writeSolutionFile(RESOURCE_PATH, filename, map);
+  }
+
+  static void writeSolutionFile(String directory, String filename, Map<Multiset<Integer>, PostfixExpression> map) throws IOException {
+    try (OutputStream out = new FileOutputStream(directory + filename)) {
       for (Map.Entry<Multiset<Integer>, PostfixExpression> entry : map.entrySet()) {
         byte[] rollSetBytes = rollSetToBytes(entry.getKey());
         out.write(rollSetBytes);
@@ -134,7 +144,11 @@ public class FileUtil {
   }
 
   static Map<Multiset<Integer>, PostfixExpression> readSolutionFile(String filename) throws IOException {
-    try (InputStream in = new FileInputStream(RESOURCE_PATH + filename)) {
+    return readSolutionFile(RESOURCE_PATH, filename);
+  }
+
+  static Map<Multiset<Integer>, PostfixExpression> readSolutionFile(String directory, String filename) throws IOException {
+    try (InputStream in = new FileInputStream(directory + filename)) {
       ImmutableMap.Builder<Multiset<Integer>, PostfixExpression> map = ImmutableMap.builder();
 
       while (in.available() > 0) {
@@ -157,7 +171,11 @@ public class FileUtil {
   }
 
   static void writeFailureFile(String filename, Set<Multiset<Integer>> set) throws IOException {
-    try (OutputStream out = new FileOutputStream(RESOURCE_PATH + filename + FAILED)) {
+    writeFailureFile(RESOURCE_PATH, filename, set);
+  }
+
+  static void writeFailureFile(String directory, String filename, Set<Multiset<Integer>> set) throws IOException {
+    try (OutputStream out = new FileOutputStream(directory + filename + FAILED)) {
       for (Multiset<Integer> entry : set) {
         byte[] rollSetBytes = rollSetToBytes(entry);
         out.write(rollSetBytes);
@@ -166,7 +184,11 @@ public class FileUtil {
   }
 
   static Set<Multiset<Integer>> readFailureFile(String filename) throws IOException {
-    try (InputStream in = new FileInputStream(RESOURCE_PATH + filename + FAILED)) {
+    return readFailureFile(RESOURCE_PATH, filename);
+  }
+
+  static Set<Multiset<Integer>> readFailureFile(String directory, String filename) throws IOException {
+    try (InputStream in = new FileInputStream(directory + filename + FAILED)) {
       ImmutableSet.Builder<Multiset<Integer>> set = ImmutableSet.builder();
 
       while (in.available() > 0) {
@@ -0,0 +1,94 @@
+package sg.common;
+
+// Solves pools too large to search, in time linear in the number of dice. A small core of the pool
+// is solved for the target as usual (tables, cache or search), and everything else is collapsed to
+// zero and added on: two equal dice or a zero table pattern make the zero, and every other die is
+// multiplied into it. This is the table's "pattern + zero" combination with a searched core.
+//
+// Cores take up to c of each roll, for c = 1, 2, ... while they fit in CORE_DICE dice, so they
+// always leave a remainder to zero. This isn't exhaustive, so a pool with no working core is
+// reported as inconclusive rather than unsolvable.
+final class LargePoolPlanner {
+  // Pools of more dice than this are planned rather than searched.
+  static final int THRESHOLD = Integer.getInteger("sg.largePool.threshold", 32);
+  // The largest core that is solved directly.
+  static final int CORE_DICE = Integer.getInteger("sg.largePool.coreDice", 20);
+
+  private LargePoolPlanner() {}
+
+  static boolean applies(RollCounts rolls) {
+    return rolls.size() > THRESHOLD;
+  }
+
+  // An expression combining every roll to one of the target's primes, or null if no core reaches
+  // it, in which case control is marked inconclusive.
+  static PostfixExpression plan(RollCounts rolls, Targets target, SearchControl control) {
+    int[] counts = rolls.toArray();
+
+    int[] core = new int[counts.length];
+    int[] remainder = new int[counts.length];
+    int previousSize = 0;
+    for (int cap = 1; ; cap++) {
+      int coreSize = 0;
+      for (int i = 0; i < counts.length; i++) {
+        core[i] = Math.min(counts[i], cap);
+        remainder[i] = counts[i] - core[i];
+        coreSize += core[i];
+      }
+      if (coreSize > CORE_DICE || coreSize == previousSize) {
+        control.inconclusive();
+        return null;
+      }
+      previousSize = coreSize;
+
+      PostfixExpression zero = zero(remainder);
+      if (zero == null) {
+        continue;
+      }
+      PostfixExpression solution =
+          SacredGeometryCalculator.calculateExpression(RollCounts.of(core), target, control);
+      if (solution != null) {
+        return PostfixExpression.create(solution, zero, Operators.ADD);
+      }
+      if (control.isStopped()) {
+        return null;
+      }
+    }
+  }
+
+  // Every die in counts combined to zero, or null if they can't be. Built one die at a time, so the
+  // expression is a chain as long as the pool rather than a recursion that deep.
+  private static PostfixExpression zero(int[] counts) {
+    int[] left = counts.clone();
+    PostfixExpression zero = null;
+    for (int i = 0; i < left.length && zero == null; i++) {
+      if (left[i] >= 2) {
+        PostfixExpression die = PostfixExpression.create(i + 1);
+        zero = PostfixExpression.create(die, die, Operators.SUB);
+        left[i] -= 2;
+      }
+    }
+
+    // Otherwise every count is 0 or 1, so the remainder packs into the zero table's format.
+    if (zero == null) {
+      SolutionTable zeroTable = SacredGeometryCalculator.table(Targets.ZERO);
+      long packed = PackedRollSet.of(left);
+      int z = zeroTable.nextPatternIn(packed, PackedRollSet.size(packed), 0);
+      if (z < 0) {
+        return null;
+      }
+      zero = zeroTable.expression(z);
+      for (int i = 0; i < left.length; i++) {
+        left[i] -= PackedRollSet.count(zeroTable.pattern(z), i + 1);
+      }
+    }
+
+    for (int i = 0; i < left.length; i++) {
+      PostfixExpression die = PostfixExpression.create(i + 1);
+      for (int k = 0; k < left[i]; k++) {
+        zero = PostfixExpression.create(zero, die, Operators.MULT);
+      }
+    }
+    return zero;
+  }
+}
@@ -0,0 +1,20 @@
+package sg.common;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("sg.Lookup")
+@Label("Table Lookup")
+@Category("Sacred Geometry")
+final class LookupEvent extends jdk.jfr.Event {
+  @Label("Dice")
+  int dice;
+
+  @Label("Level")
+  int level;
+
+  // A Resolution name, or "MISS" if the roll set has to be searched.
+  @Label("Result")
+  String result;
+}
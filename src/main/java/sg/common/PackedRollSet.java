@@ -0,0 +1,135 @@
+package sg.common;
+
+import com.google.common.collect.ImmutableSortedMultiset;
+import com.google.common.collect.Multiset;
+
+// Roll sets of d8 (or smaller) dice packed into a long, one byte lane per face: the count of 1s is
+// the most significant byte and the count of 8s the least, mirroring FileUtil.rollSetToBytes. A
+// lane holds up to 127 dice, so the high bit of every byte is free for SWAR comparisons.
+final class PackedRollSet {
+  static final int FACES = 8;
+  static final int MAX_COUNT = 127;
+
+  private static final long HIGH_BITS = 0x8080808080808080L;
+  private static final long LOW_BYTE = 0xffL;
+
+  private PackedRollSet() {}
+
+  static long of(Multiset<Integer> rollSet) {
+    long packed = 0;
+    for (Multiset.Entry<Integer> entry : rollSet.entrySet()) {
+      packed = withCount(packed, entry.getElement(), entry.getCount());
+    }
+    return packed;
+  }
+
+  static long of(int[] counts) {
+    long packed = 0;
+    for (int i = 0; i < counts.length; i++) {
+      packed = withCount(packed, i + 1, counts[i]);
+    }
+    return packed;
+  }
+
+  static long single(int face) {
+    return withCount(0, face, 1);
+  }
+
+  // Like of(Multiset), but clamps counts to MAX_COUNT. Containment of any table key (whose counts
+  // are at most 15) is unaffected by the clamping.
+  static long saturated(Multiset<Integer> rollSet) {
+    long packed = 0;
+    for (Multiset.Entry<Integer> entry : rollSet.entrySet()) {
+      packed = withCount(packed, entry.getElement(), Math.min(entry.getCount(), MAX_COUNT));
+    }
+    return packed;
+  }
+
+  static long saturated(int[] counts) {
+    long packed = 0;
+    for (int i = 0; i < counts.length; i++) {
+      packed = withCount(packed, i + 1, Math.min(counts[i], MAX_COUNT));
+    }
+    return packed;
+  }
+
+  static boolean isPackable(Multiset<Integer> rollSet) {
+    for (Integer roll : rollSet.elementSet()) {
+      if (roll < 1 || roll > FACES) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static long withCount(long packed, int face, int count) {
+    if (face < 1 || face > FACES) {
+      throw new IllegalArgumentException(face + " is not a valid roll (from 1 to " + FACES + ").");
+    }
+    if (count > MAX_COUNT) {
+      throw new IllegalArgumentException(
+          "Roll sets with more than " + MAX_COUNT + " of a single roll cannot be packed.");
+    }
+    return packed | (long) count << shift(face);
+  }
+
+  static int count(long packed, int face) {
+    return (int) (packed >>> shift(face) & LOW_BYTE);
+  }
+
+  static int size(long packed) {
+    int size = 0;
+    for (int face = 1; face <= FACES; face++) {
+      size += count(packed, face);
+    }
+    return size;
+  }
+
+  // True if every face is rolled at least as often in superset as in subset.
+  static boolean contains(long superset, long subset) {
+    return (((superset | HIGH_BITS) - subset) & HIGH_BITS) == HIGH_BITS;
+  }
+
+  // Only valid when contains(superset, subset); no lane can then borrow from its neighbour.
+  static long minus(long superset, long subset) {
+    return superset - subset;
+  }
+
+  static Multiset<Integer> toRollSet(long packed) {
+    ImmutableSortedMultiset.Builder<Integer> builder = ImmutableSortedMultiset.naturalOrder();
+    for (int face = 1; face <= FACES; face++) {
+      builder.addCopies(face, count(packed, face));
+    }
+    return builder.build();
+  }
+
+  // The 4-byte, 4-bits-per-face form used by the table files.
+  static boolean fitsInNibbles(long packed) {
+    return (packed & 0xf0f0f0f0f0f0f0f0L) == 0;
+  }
+
+  static int toNibbles(long packed) {
+    if (!fitsInNibbles(packed)) {
+      throw new IllegalArgumentException(
+          "Roll sets with more than 15 of a single roll are not supported for this process.");
+    }
+    int nibbles = 0;
+    for (int face = 1; face <= FACES; face++) {
+      nibbles = nibbles << 4 | count(packed, face);
+    }
+    return nibbles;
+  }
+
+  static long fromNibbles(int nibbles) {
+    long packed = 0;
+    for (int face = FACES; face >= 1; face--) {
+      packed |= (long) (nibbles & 0xf) << shift(face);
+      nibbles >>>= 4;
+    }
+    return packed;
+  }
+
+  private static int shift(int face) {
+    return (FACES - face) * 8;
+  }
+}
@@ -0,0 +1,165 @@
+package sg.common;
+
+import com.google.common.collect.Multiset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Splits the first few levels of the search into fork-join tasks, each of which finishes its
+// subtree with a SearchEngine. All tasks share one visited-state set, and the first task to reach
+// a target stops the rest.
+final class ParallelSearch {
+  static final int DEFAULT_SPLIT_DEPTH = 2;
+
+  private final long[] targets;
+  private final int splitDepth;
+  private final StateSet visited = new ConcurrentVisitedStates();
+  private final SearchControl control;
+  // Set by the first task to reach a target. The control's own stop flag is only for the budget,
+  // so that later searches sharing the control aren't stopped too.
+  private final AtomicBoolean done = new AtomicBoolean();
+  private final AtomicReference<PostfixExpression> result = new AtomicReference<>();
+
+  private ParallelSearch(Set<Long> targetSet, int splitDepth, SearchControl control) {
+    this.targets = SearchEngine.toArray(targetSet);
+    this.splitDepth = splitDepth;
+    this.control = control;
+  }
+
+  static PostfixExpression search(Multiset<Integer> rollSet, Set<Long> targetSet) {
+    return search(rollSet, targetSet, SearchControl.unlimited());
+  }
+
+  static PostfixExpression search(
+      Multiset<Integer> rollSet, Set<Long> targetSet, SearchControl control) {
+    return search(rollSet, targetSet, DEFAULT_SPLIT_DEPTH, ForkJoinPool.commonPool(), control);
+  }
+
+  static PostfixExpression search(
+      Multiset<Integer> rollSet,
+      Set<Long> targetSet,
+      int splitDepth,
+      ForkJoinPool pool,
+      SearchControl control) {
+    ParallelSearch search = new ParallelSearch(targetSet, splitDepth, control);
+    ForkJoinTask<Void> task =
+        pool.submit(
+            search.new SplitTask(
+                rollSet.stream().mapToLong(Integer::longValue).toArray(),
+                rollSet.stream()
+                    .map(PostfixExpression::create)
+                    .toArray(PostfixExpression[]::new),
+                0));
+    // The pool's workers never see the caller's interrupt, so it's passed on through the control.
+    try {
+      task.get();
+    } catch (InterruptedException e) {
+      control.cancel();
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+    return search.result.get();
+  }
+
+  private final class SplitTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final long[] values;
+    private final PostfixExpression[] expressions;
+    private final int depth;
+
+    SplitTask(long[] values, PostfixExpression[] expressions, int depth) {
+      this.values = values;
+      this.expressions = expressions;
+      this.depth = depth;
+    }
+
+    @Override
+    protected void compute() {
+      if (control.isStopped() || done.get()) {
+        return;
+      }
+
+      // Past the first level, only keep splitting while other workers are short of tasks.
+      if (depth >= splitDepth || values.length <= 2 || getSurplusQueuedTaskCount() > 3) {
+        PostfixExpression found =
+            new SearchEngine(values, expressions, targets, visited, control, done).search();
+        if (found != null && result.compareAndSet(null, found)) {
+          done.set(true);
+        }
+        return;
+      }
+
+      if (!visited.add(StateHash.of(values, values.length))) {
+        return;
+      }
+
+      // Same pairs and operators as SearchEngine, one task per merge.
+      List<SplitTask> tasks = new ArrayList<>();
+      for (int i = 0; i < values.length; i++) {
+        if (hasEarlierDuplicate(i, -1)) {
+          continue;
+        }
+        for (int j = i + 1; j < values.length; j++) {
+          if (hasEarlierDuplicate(j, i)) {
+            continue;
+          }
+          int larger = values[i] >= values[j] ? i : j;
+          int smaller = larger == i ? j : i;
+          long a = values[larger];
+          long b = values[smaller];
+
+          long sum = a + b;
+          long difference = a - b;
+          long product = a * b;
+          tasks.add(child(larger, smaller, Operators.ADD, sum));
+          if (difference != sum) {
+            tasks.add(child(larger, smaller, Operators.SUB, difference));
+          }
+          if (product != sum && product != difference) {
+            tasks.add(child(larger, smaller, Operators.MULT, product));
+          }
+          if (b != 0 && a % b == 0) {
+            long quotient = a / b;
+            if (quotient != sum && quotient != difference && quotient != product) {
+              tasks.add(child(larger, smaller, Operators.DIV, quotient));
+            }
+          }
+        }
+      }
+      invokeAll(tasks);
+    }
+
+    private SplitTask child(int i, int j, Operators operator, long value) {
+      long[] childValues = new long[values.length - 1];
+      PostfixExpression[] childExpressions = new PostfixExpression[values.length - 1];
+      childValues[0] = value;
+      childExpressions[0] = PostfixExpression.create(expressions[i], expressions[j], operator);
+      for (int k = 0, c = 1; k < values.length; k++) {
+        if (k != i && k != j) {
+          childValues[c] = values[k];
+          childExpressions[c] = expressions[k];
+          c++;
+        }
+      }
+      return new SplitTask(childValues, childExpressions, depth + 1);
+    }
+
+    private boolean hasEarlierDuplicate(int index, int skip) {
+      for (int k = 0; k < index; k++) {
+        if (k != skip && values[k] == values[index]) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+}
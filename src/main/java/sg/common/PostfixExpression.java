@@ -1,86 +1,232 @@
 package sg.common;
 
-import com.google.auto.value.AutoValue;
-import java.util.Stack;
+import com.google.common.math.LongMath;
+import java.util.ArrayDeque;
+import java.util.Deque;
 
-@AutoValue
-public abstract class PostfixExpression {
-  private long expressionResult;
+// An immutable expression tree. Each node holds its result, so combining two expressions is
+// constant time and shares both operands rather than copying them. The postfix string is only
+// built when asked for, and is then kept.
+//
+// createExact lets a division that doesn't come out even give a fraction, held in lowest terms.
+// Only exact searches (-Dsg.engine=exact) make such subexpressions, and a whole solution always
+// comes to an integer.
+public final class PostfixExpression {
+  // Single digits are shared, as every table expression and roll set is made of them.
+  private static final PostfixExpression[] DIGITS = new PostfixExpression[10];
+
+  static {
+    for (int n = 0; n < DIGITS.length; n++) {
+      DIGITS[n] = new PostfixExpression(n, 1, null, null, null, 1);
+    }
+  }
+
+  private final long expressionResult;
+  // Always positive, and 1 unless the result is a fraction.
+  private final long denominator;
+  private final Operators operator;
+  private final PostfixExpression left;
+  private final PostfixExpression right;
+  private final int length;
+
+  private String expressionString;
+
+  private PostfixExpression(
+      long expressionResult,
+      long denominator,
+      Operators operator,
+      PostfixExpression left,
+      PostfixExpression right,
+      int length) {
+    this.expressionResult = expressionResult;
+    this.denominator = denominator;
+    this.operator = operator;
+    this.left = left;
+    this.right = right;
+    this.length = length;
+  }
 
   public static PostfixExpression create(int n) {
-    PostfixExpression exp = new AutoValue_PostfixExpression(String.valueOf(n));
-    exp.expressionResult = n;
-    return exp;
+    if (n >= 0 && n < DIGITS.length) {
+      return DIGITS[n];
+    }
+    return new PostfixExpression(n, 1, null, null, null, String.valueOf(n).length());
   }
 
   public static PostfixExpression create(String s) {
-    PostfixExpression exp = new AutoValue_PostfixExpression(s);
-    exp.expressionResult = evaluate(s);
+    PostfixExpression[] stack = new PostfixExpression[s.length()];
+    int size = 0;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c >= '0' && c <= '9') {
+        stack[size++] = create(c - '0');
+        continue;
+      }
+
+      Operators operator = Operators.fromCharacter(c);
+      if (operator == null) {
+        throw new IllegalStateException(c + " is not a valid dice roll or operator");
+      }
+      if (size < 2) {
+        throw new IllegalStateException(s + " is not a complete postfix expression");
+      }
+      stack[size - 2] = create(stack[size - 2], stack[size - 1], operator);
+      size--;
+    }
+    if (size != 1) {
+      throw new IllegalStateException(s + " is not a complete postfix expression");
+    }
+    PostfixExpression exp = stack[0];
+    exp.expressionString = s;
     return exp;
   }
 
+  // Combines two integer expressions, which a division must leave an integer.
   public static PostfixExpression create(PostfixExpression exp1, PostfixExpression exp2, Operators op) {
-    PostfixExpression exp = new AutoValue_PostfixExpression(exp1.expressionString() + exp2.expressionString() + op.character());
-    exp.expressionResult = switch (op) {
+    if (exp1.denominator != 1 || exp2.denominator != 1) {
+      throw new IllegalStateException(
+          String.format("%s %s %s is a fraction", exp1, op.character(), exp2));
+    }
+    if (op == Operators.DIV
+        && (exp2.expressionResult == 0 || exp1.expressionResult % exp2.expressionResult != 0)) {
+      throw new IllegalStateException(
+          String.format("%s divided by %s does not result in an integer", exp1, exp2));
+    }
+    return createInteger(exp1, exp2, op);
+  }
+
+  // As create, but a division that doesn't come out even, or an operand that is already a
+  // fraction, gives a fraction. Throws ArithmeticException if the fraction overflows.
+  public static PostfixExpression createExact(
+      PostfixExpression exp1, PostfixExpression exp2, Operators op) {
+    if (op == Operators.DIV && exp2.expressionResult == 0) {
+      throw new IllegalStateException(String.format("%s divided by %s is undefined", exp1, exp2));
+    }
+    if (exp1.denominator != 1
+        || exp2.denominator != 1
+        || (op == Operators.DIV && exp1.expressionResult % exp2.expressionResult != 0)) {
+      return createFraction(exp1, exp2, op);
+    }
+    return createInteger(exp1, exp2, op);
+  }
+
+  private static PostfixExpression createInteger(
+      PostfixExpression exp1, PostfixExpression exp2, Operators op) {
+    long result = switch (op) {
       case ADD -> exp1.expressionResult + exp2.expressionResult;
       case SUB -> exp1.expressionResult - exp2.expressionResult;
       case MULT -> exp1.expressionResult * exp2.expressionResult;
-      case DIV -> {
-        if (exp2.expressionResult == 0 || exp1.expressionResult % exp2.expressionResult != 0) {
-          throw new IllegalStateException(
-              String.format("%s divided by %s does not result in an integer", exp1, exp2));
-        }
-        yield exp1.expressionResult / exp2.expressionResult;
-      }
+      case DIV -> exp1.expressionResult / exp2.expressionResult;
     };
-    return exp;
+    return new PostfixExpression(result, 1, op, exp1, exp2, exp1.length + exp2.length + 1);
   }
 
-  private static long evaluate(String expression) {
-    Stack<Long> stack = new Stack<>();
-    for (char c : expression.toCharArray()) {
-      switch (c) {
-        case '0', '1', '2', '3', '4', '5', '6', '7', '8', '9' -> stack.push((long) c - '0');
-        default -> {
-          Operators operator = Operators.fromCharacter(c);
-          if (operator != null) {
-            Long operand2 = stack.pop();
-            Long operand1 = stack.pop();
-            switch (Operators.fromCharacter(c)) {
-              case ADD -> stack.push(operand1 + operand2);
-              case SUB -> stack.push(operand1 - operand2);
-              case MULT -> stack.push(operand1 * operand2);
-              case DIV -> {
-                if (operand2 == 0 || operand1 % operand2 != 0) {
-                  throw new IllegalStateException(
-                      String.format("%s divided by %s does not result in an integer", operand1, operand2));
-                }
-                stack.push(operand1 / operand2);
-              }
-            }
-          }
-          else {
-            throw new IllegalStateException(c + " is not a valid dice roll or operator");
-          }
-        }
-
-      }
+  private static PostfixExpression createFraction(
+      PostfixExpression exp1, PostfixExpression exp2, Operators op) {
+    long p = exp1.expressionResult;
+    long q = exp1.denominator;
+    long r = exp2.expressionResult;
+    long s = exp2.denominator;
+    if (op == Operators.DIV) {
+      // Multiplying by the reciprocal, with its sign moved to the numerator.
+      long reciprocal = r < 0 ? -s : s;
+      s = Math.abs(r);
+      r = reciprocal;
     }
-    Long result = stack.pop();
-    if (!stack.empty()) {
-      throw new IllegalStateException(expression + " is not a complete postfix expression");
+    long numerator;
+    long denominator;
+    if (op == Operators.ADD) {
+      numerator = Math.addExact(Math.multiplyExact(p, s), Math.multiplyExact(r, q));
+      denominator = Math.multiplyExact(q, s);
+    } else if (op == Operators.SUB) {
+      numerator = Math.subtractExact(Math.multiplyExact(p, s), Math.multiplyExact(r, q));
+      denominator = Math.multiplyExact(q, s);
+    } else {
+      // Both are in lowest terms, so only the cross terms can share factors.
+      long g1 = LongMath.gcd(Math.abs(p), s);
+      long g2 = LongMath.gcd(Math.abs(r), q);
+      numerator = Math.multiplyExact(p / g1, r / g2);
+      denominator = Math.multiplyExact(q / g2, s / g1);
     }
-    return result;
+    long g = LongMath.gcd(Math.abs(numerator), denominator);
+    return new PostfixExpression(
+        numerator / g, denominator / g, op, exp1, exp2, exp1.length + exp2.length + 1);
   }
 
-  public abstract String expressionString();
-
+  // The result, or its numerator if it is a fraction.
   public long expressionResult() {
     return expressionResult;
   }
 
+  // 1 unless the result is a fraction, which only part of an exact search's solution can be.
+  public long denominator() {
+    return denominator;
+  }
+
+  // Null for a single roll.
+  public Operators operator() {
+    return operator;
+  }
+
+  public PostfixExpression left() {
+    return left;
+  }
+
+  public PostfixExpression right() {
+    return right;
+  }
+
+  public boolean isLeaf() {
+    return operator == null;
+  }
+
+  // Rendered iteratively, since a large pool can make for a very deep tree.
+  public String expressionString() {
+    String s = expressionString;
+    if (s != null) {
+      return s;
+    }
+
+    StringBuilder builder = new StringBuilder(length);
+    Deque<PostfixExpression> pending = new ArrayDeque<>();
+    Deque<Boolean> expanded = new ArrayDeque<>();
+    pending.push(this);
+    expanded.push(false);
+    while (!pending.isEmpty()) {
+      PostfixExpression node = pending.pop();
+      boolean childrenDone = expanded.pop();
+      if (node.isLeaf()) {
+        builder.append(node.expressionResult);
+      } else if (childrenDone) {
+        builder.append(node.operator.character());
+      } else {
+        pending.push(node);
+        expanded.push(true);
+        pending.push(node.right);
+        expanded.push(false);
+        pending.push(node.left);
+        expanded.push(false);
+      }
+    }
+
+    s = builder.toString();
+    expressionString = s;
+    return s;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof PostfixExpression
+        && ((PostfixExpression) o).expressionString().equals(expressionString());
+  }
+
+  @Override
+  public int hashCode() {
+    return expressionString().hashCode();
+  }
+
   @Override
   public String toString() {
     return expressionString();
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,309 @@
+package sg.common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+// The answer for every level of every d8 roll set of up to maxDice dice. There are only
+// C(maxDice + 8, 8) such roll sets (3,108,105 for 20 dice), so each has a record at its
+// stars-and-bars rank and a lookup is a little arithmetic and two reads, never a search.
+//
+// Header: magic "SGRS", version, maxDice, record count. Then one long per rank (the empty roll set
+// included, at rank 0): the offset of its expressions in the blob, shifted left past a mask of
+// the levels it reaches, one bit per Targets ordinal. Then the blob: for each roll set, the
+// expression of each level it reaches in ordinal order, in FileUtil's nibble encoding, which for
+// n dice is always n bytes.
+//
+// Ranks order roll sets by size, then by count of 1s, then of 2s, and so on. The store is too
+// large to ship, so it's generated on demand and only used when -Dsg.store names it.
+final class RankStore {
+  static final String FILE_NAME = "sg.store";
+  static final String PATH_PROPERTY = "sg.store";
+  static final int VERSION = 1;
+  static final int MAX_DICE = 20;
+
+  private static final int MAGIC = 0x53475253;
+  private static final int HEADER_BYTES = 16;
+  private static final int MASK_BITS = Targets.values().length;
+  private static final long MASK = (1L << MASK_BITS) - 1;
+  private static final int FACES = PackedRollSet.FACES;
+  private static final int CHUNK = 1 << 16;
+
+  // SMALLER[n] is the number of roll sets of fewer than n dice.
+  private static final int[] SMALLER = new int[MAX_DICE + 2];
+  // STEPS[f][r][c] is the number of roll sets of r dice over faces f + 1 to FACES whose count of
+  // face f + 1 is below c: the rank of the first roll set with c of that face.
+  private static final int[][][] STEPS = new int[FACES - 1][MAX_DICE + 1][MAX_DICE + 1];
+
+  static {
+    for (int n = 0; n <= MAX_DICE; n++) {
+      SMALLER[n + 1] = SMALLER[n] + (int) rollSets(n, FACES);
+    }
+    for (int f = 0; f < FACES - 1; f++) {
+      for (int r = 0; r <= MAX_DICE; r++) {
+        for (int c = 1; c <= r; c++) {
+          STEPS[f][r][c] = STEPS[f][r][c - 1] + (int) rollSets(r - (c - 1), FACES - f - 1);
+        }
+      }
+    }
+  }
+
+  private final ByteBuffer buffer;
+  private final int maxDice;
+  private final int blob;
+
+  private RankStore(ByteBuffer buffer) {
+    if (buffer.getInt(0) != MAGIC) {
+      throw new IllegalStateException("Not a Sacred Geometry store file.");
+    }
+    if (buffer.getInt(4) != VERSION) {
+      throw new IllegalStateException(
+          "Unsupported store file version " + buffer.getInt(4) + " (expected " + VERSION + ").");
+    }
+    this.buffer = buffer;
+    this.maxDice = buffer.getInt(8);
+    if (maxDice < 0 || maxDice > MAX_DICE || buffer.getInt(12) != SMALLER[maxDice + 1]) {
+      throw new IllegalStateException("Store file has an invalid header.");
+    }
+    this.blob = HEADER_BYTES + buffer.getInt(12) * Long.BYTES;
+  }
+
+  // Maps the file named by -Dsg.store, or returns null if it isn't set.
+  static RankStore load() throws IOException {
+    String path = System.getProperty(PATH_PROPERTY);
+    return path == null ? null : open(Paths.get(path));
+  }
+
+  static RankStore open(Path path) throws IOException {
+    return new RankStore(TableFile.map(path));
+  }
+
+  int maxDice() {
+    return maxDice;
+  }
+
+  boolean covers(RollCounts rolls) {
+    return rolls.size() > 0 && rolls.size() <= maxDice;
+  }
+
+  // A bit per reachable level, by Targets ordinal. The roll set must be covered.
+  int levels(long rollSet) {
+    return (int) (record(rollSet) & MASK);
+  }
+
+  // The stored expression for the level, or null if the roll set can't reach it. The roll set
+  // must be covered.
+  PostfixExpression expression(long rollSet, Targets target) {
+    long record = record(rollSet);
+    int levels = (int) (record & MASK);
+    if ((levels & 1 << target.ordinal()) == 0) {
+      return null;
+    }
+    int size = PackedRollSet.size(rollSet);
+    int index = Integer.bitCount(levels & ((1 << target.ordinal()) - 1));
+    byte[] bytes = new byte[size];
+    buffer.get(blob + (int) (record >>> MASK_BITS) + index * size, bytes);
+    return FileUtil.bytesToExpression(bytes);
+  }
+
+  private long record(long rollSet) {
+    return buffer.getLong(HEADER_BYTES + rank(rollSet) * Long.BYTES);
+  }
+
+  static int rank(long rollSet) {
+    int remaining = PackedRollSet.size(rollSet);
+    int rank = SMALLER[remaining];
+    for (int face = 1; face < FACES; face++) {
+      int count = PackedRollSet.count(rollSet, face);
+      rank += STEPS[face - 1][remaining][count];
+      remaining -= count;
+    }
+    return rank;
+  }
+
+  // Solves every roll set of up to maxDice dice at every level, and writes the store to path.
+  static void generate(Path path, int maxDice, int threads, Consumer<String> output)
+      throws IOException, InterruptedException {
+    if (maxDice < 1 || maxDice > MAX_DICE) {
+      throw new IllegalArgumentException(
+          "The maximum number of dice must be between 1 and " + MAX_DICE + " (inclusive).");
+    }
+    long start = System.nanoTime();
+    int count = SMALLER[maxDice + 1];
+    ForkJoinPool pool = new ForkJoinPool(threads);
+
+    try (FileChannel channel =
+        FileChannel.open(
+            path,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      header.putInt(MAGIC).putInt(VERSION).putInt(maxDice).putInt(count).flip();
+      write(channel, header, 0);
+
+      // Rank 0, the empty roll set, reaches nothing and has no expressions.
+      long blobStart = HEADER_BYTES + (long) count * Long.BYTES;
+      long blobSize = 0;
+      List<Long> rollSets = new ArrayList<>(CHUNK);
+      rollSets.add(0L);
+      for (int size = 1; size <= maxDice; size++) {
+        int[] counts = new int[FACES];
+        counts[FACES - 1] = size;
+        do {
+          rollSets.add(PackedRollSet.of(counts));
+          if (rollSets.size() == CHUNK) {
+            blobSize = writeChunk(channel, pool, rollSets, blobStart, blobSize);
+            rollSets.clear();
+          }
+        } while (next(counts));
+        // Each size ends its chunk, so the progress below is exact.
+        blobSize = writeChunk(channel, pool, rollSets, blobStart, blobSize);
+        rollSets.clear();
+        output.accept(
+            String.format(
+                "%d dice: %d roll sets, %.1fs\n",
+                size, SMALLER[size + 1] - SMALLER[size], (System.nanoTime() - start) / 1e9));
+      }
+      if (blobStart + blobSize > Integer.MAX_VALUE) {
+        throw new IllegalStateException("The store is too large to be mapped.");
+      }
+      output.accept(
+          String.format(
+              "Wrote %s (%d roll sets, %d bytes) in %.1fs.\n",
+              path, count, blobStart + blobSize, (System.nanoTime() - start) / 1e9));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  // Advances counts to the roll set of the same size with the next rank; false after the last.
+  // Counts of faces 1 to 7 are read as digits, the 1s most significant, and face 8 takes the rest.
+  private static boolean next(int[] counts) {
+    for (int face = FACES - 2; face >= 0; face--) {
+      if (counts[FACES - 1] > 0) {
+        counts[face]++;
+        counts[FACES - 1]--;
+        return true;
+      }
+      counts[FACES - 1] += counts[face];
+      counts[face] = 0;
+    }
+    return false;
+  }
+
+  // Solves the chunk in parallel and appends it to the store, returning the new blob size.
+  private static long writeChunk(
+      FileChannel channel, ForkJoinPool pool, List<Long> rollSets, long blobStart, long blobSize)
+      throws IOException, InterruptedException {
+    if (rollSets.isEmpty()) {
+      return blobSize;
+    }
+    byte[][] answers = new byte[rollSets.size()][];
+    int[] levels = new int[rollSets.size()];
+    try {
+      pool.submit(
+              () ->
+                  IntStream.range(0, rollSets.size())
+                      .parallel()
+                      .forEach(i -> solve(rollSets.get(i), answers, levels, i)))
+          .get();
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+
+    ByteBuffer records = ByteBuffer.allocate(rollSets.size() * Long.BYTES);
+    int chunkBytes = 0;
+    for (byte[] answer : answers) {
+      chunkBytes += answer.length;
+    }
+    ByteBuffer expressions = ByteBuffer.allocate(chunkBytes);
+    for (int i = 0; i < rollSets.size(); i++) {
+      records.putLong((blobSize + expressions.position()) << MASK_BITS | levels[i]);
+      expressions.put(answers[i]);
+    }
+
+    int firstRank = rank(rollSets.get(0));
+    if (rank(rollSets.get(rollSets.size() - 1)) != firstRank + rollSets.size() - 1) {
+      throw new IllegalStateException("Roll sets were not visited in rank order.");
+    }
+    write(channel, records.flip(), HEADER_BYTES + (long) firstRank * Long.BYTES);
+    write(channel, expressions.flip(), blobStart + blobSize);
+    return blobSize + chunkBytes;
+  }
+
+  // Every level, ZERO included, from the tables where they can and a single search otherwise.
+  private static void solve(long rollSet, byte[][] answers, int[] levels, int index) {
+    if (rollSet == 0) {
+      answers[index] = new byte[0];
+      return;
+    }
+    RollCounts counts = RollCounts.fromPacked(rollSet);
+    PostfixExpression[] found = new PostfixExpression[MASK_BITS];
+    List<Targets> unresolved = new ArrayList<>();
+    for (Targets target : Targets.values()) {
+      Optional<PostfixExpression> known = SacredGeometryCalculator.lookup(counts, target);
+      if (known == null) {
+        unresolved.add(target);
+      } else {
+        found[target.ordinal()] = known.orElse(null);
+      }
+    }
+    Map<Targets, PostfixExpression> searched =
+        unresolved.isEmpty()
+            ? Collections.emptyMap()
+            : SearchEngine.forLevels(counts.toRollSet(), unresolved, false).searchLevels();
+    for (Map.Entry<Targets, PostfixExpression> entry : searched.entrySet()) {
+      found[entry.getKey().ordinal()] = entry.getValue();
+    }
+
+    int size = PackedRollSet.size(rollSet);
+    int mask = 0;
+    for (int i = 0; i < found.length; i++) {
+      if (found[i] != null) {
+        mask |= 1 << i;
+      }
+    }
+    byte[] answer = new byte[Integer.bitCount(mask) * size];
+    int position = 0;
+    for (PostfixExpression expression : found) {
+      if (expression != null) {
+        System.arraycopy(FileUtil.expressionToBytes(expression), 0, answer, position, size);
+        position += size;
+      }
+    }
+    answers[index] = answer;
+    levels[index] = mask;
+  }
+
+  private static void write(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+
+  // The number of roll sets of n dice over the given number of faces, C(n + faces - 1, n).
+  private static long rollSets(int n, int faces) {
+    if (faces == 0) {
+      return n == 0 ? 1 : 0;
+    }
+    long result = 1;
+    for (int i = 1; i <= n; i++) {
+      result = result * (faces - 1 + i) / i;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,23 @@
+package sg.common;
+
+// How a request was answered, from cheapest to most expensive.
+public enum Resolution {
+  // A record in the RankStore named by -Dsg.store.
+  STORE,
+  // A table pattern using every roll.
+  TABLE,
+  // A table pattern, plus the rest of the rolls made into zero with the zero table.
+  PATTERN_AND_ZERO,
+  // A roll set the tables list as failing.
+  TABLE_FAILURE,
+  // The result cache, from an earlier search.
+  CACHE,
+  // SolveSession's previous expression, with the part holding a changed die searched again.
+  REPAIR,
+  SEARCH,
+  PARALLEL_SEARCH,
+  // ExactSearchEngine (-Dsg.engine=exact), whose values may be fractions.
+  EXACT_SEARCH,
+  // A core of the pool, solved as above, plus the rest made into zero by LargePoolPlanner.
+  LARGE_POOL
+}
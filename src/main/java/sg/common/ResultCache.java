@@ -0,0 +1,141 @@
+package sg.common;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Multiset;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+// Search results for roll sets the tables couldn't resolve, keyed by the exact packed roll set and
+// level. Failures are kept too, as empty results. Eviction is Guava's size-bounded, approximately
+// LRU policy.
+//
+// With a directory, the cache can be saved to and loaded from sgN / sgNf files in the FileUtil
+// format, the same as the generator's output; entries with more than 15 of a single roll don't fit
+// that format and are not saved.
+final class ResultCache {
+  static final String MAX_SIZE_PROPERTY = "sg.cache.maxSize";
+  static final String DIRECTORY_PROPERTY = "sg.cache.directory";
+  static final long DEFAULT_MAX_SIZE = 100_000;
+
+  private final Cache<Key, Optional<PostfixExpression>> cache;
+  private final String directory;
+
+  ResultCache(long maxSize, String directory) {
+    this.cache = CacheBuilder.newBuilder().maximumSize(maxSize).recordStats().build();
+    this.directory = directory;
+  }
+
+  static ResultCache fromSystemProperties() {
+    String directory = System.getProperty(DIRECTORY_PROPERTY);
+    if (directory != null && !directory.endsWith("/")) {
+      directory += "/";
+    }
+    return new ResultCache(Long.getLong(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE), directory);
+  }
+
+  // The cached result, empty for a cached failure, or null if the roll set hasn't been seen.
+  Optional<PostfixExpression> get(long rollSet, Targets target) {
+    return cache.getIfPresent(new Key(rollSet, target));
+  }
+
+  void put(long rollSet, Targets target, Optional<PostfixExpression> result) {
+    cache.put(new Key(rollSet, target), result);
+  }
+
+  CacheStats stats() {
+    return cache.stats();
+  }
+
+  long size() {
+    return cache.size();
+  }
+
+  boolean isPersistent() {
+    return directory != null;
+  }
+
+  // Fills the cache from the directory's files, if there are any yet.
+  void load() throws IOException {
+    if (directory == null) {
+      return;
+    }
+    for (Targets target : Targets.values()) {
+      if (Files.exists(Paths.get(directory + target.fileName()))) {
+        for (Map.Entry<Multiset<Integer>, PostfixExpression> entry :
+            FileUtil.readSolutionFile(directory, target.fileName()).entrySet()) {
+          put(PackedRollSet.of(entry.getKey()), target, Optional.of(entry.getValue()));
+        }
+      }
+      if (Files.exists(Paths.get(directory + target.fileName() + FileUtil.FAILED))) {
+        for (Multiset<Integer> rollSet : FileUtil.readFailureFile(directory, target.fileName())) {
+          put(PackedRollSet.of(rollSet), target, Optional.empty());
+        }
+      }
+    }
+  }
+
+  void save() throws IOException {
+    if (directory == null) {
+      return;
+    }
+    Map<Targets, Map<Multiset<Integer>, PostfixExpression>> solutions =
+        new EnumMap<>(Targets.class);
+    Map<Targets, Set<Multiset<Integer>>> failures = new EnumMap<>(Targets.class);
+    for (Targets target : Targets.values()) {
+      solutions.put(target, new HashMap<>());
+      failures.put(target, new HashSet<>());
+    }
+
+    for (Map.Entry<Key, Optional<PostfixExpression>> entry : cache.asMap().entrySet()) {
+      Key key = entry.getKey();
+      if (!PackedRollSet.fitsInNibbles(key.rollSet)) {
+        continue;
+      }
+      Multiset<Integer> rollSet = PackedRollSet.toRollSet(key.rollSet);
+      if (entry.getValue().isPresent()) {
+        solutions.get(key.target).put(rollSet, entry.getValue().get());
+      } else {
+        failures.get(key.target).add(rollSet);
+      }
+    }
+
+    Files.createDirectories(Paths.get(directory));
+    for (Targets target : Targets.values()) {
+      FileUtil.writeSolutionFile(directory, target.fileName(), solutions.get(target));
+      FileUtil.writeFailureFile(directory, target.fileName(), failures.get(target));
+    }
+  }
+
+  private static final class Key {
+    private final long rollSet;
+    private final Targets target;
+
+    Key(long rollSet, Targets target) {
+      this.rollSet = rollSet;
+      this.target = target;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return rollSet == other.rollSet && target == other.target;
+    }
+
+    @Override
+    public int hashCode() {
+      return Long.hashCode(rollSet) * 31 + target.ordinal();
+    }
+  }
+}
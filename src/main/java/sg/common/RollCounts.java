@@ -0,0 +1,128 @@
+package sg.common;
+
+import com.google.common.collect.ImmutableSortedMultiset;
+import com.google.common.collect.Multiset;
+import java.util.Arrays;
+
+// A roll set as the number of each roll from 1 to 8, which is the form the tables, store and cache
+// are keyed by. Callers that already count their dice can solve without building a Multiset; only
+// roll sets that have to be searched are turned into one.
+public final class RollCounts {
+  private final int[] counts;
+  private final int size;
+  private final long packed;
+
+  private RollCounts(int[] counts) {
+    int size = 0;
+    for (int count : counts) {
+      size += count;
+    }
+    this.counts = counts;
+    this.size = size;
+    this.packed = PackedRollSet.saturated(counts);
+  }
+
+  // counts[i] is the number of (i + 1)s: 8 counts, none negative. The array is copied.
+  public static RollCounts of(int... counts) {
+    if (counts.length != PackedRollSet.FACES) {
+      throw new IllegalArgumentException(
+          "A roll set needs a count for each roll from 1 to " + PackedRollSet.FACES + ".");
+    }
+    for (int count : counts) {
+      if (count < 0) {
+        throw new IllegalArgumentException(count + " is not a valid number of rolls.");
+      }
+    }
+    return new RollCounts(counts.clone());
+  }
+
+  public static RollCounts of(Multiset<Integer> rollSet) {
+    int[] counts = new int[PackedRollSet.FACES];
+    for (Multiset.Entry<Integer> entry : rollSet.entrySet()) {
+      int face = entry.getElement();
+      if (face < 1 || face > PackedRollSet.FACES) {
+        throw new IllegalArgumentException(
+            face + " is not a valid roll (from 1 to " + PackedRollSet.FACES + ").");
+      }
+      counts[face - 1] = entry.getCount();
+    }
+    return new RollCounts(counts);
+  }
+
+  static RollCounts fromPacked(long packed) {
+    int[] counts = new int[PackedRollSet.FACES];
+    for (int face = 1; face <= PackedRollSet.FACES; face++) {
+      counts[face - 1] = PackedRollSet.count(packed, face);
+    }
+    return new RollCounts(counts);
+  }
+
+  // The number of dice that rolled face, from 1 to 8.
+  public int count(int face) {
+    return counts[face - 1];
+  }
+
+  // The number of dice.
+  public int size() {
+    return size;
+  }
+
+  public int[] toArray() {
+    return counts.clone();
+  }
+
+  // The rolls in ascending order, one digit each: "1134" for two 1s, a 3 and a 4.
+  public String rolls() {
+    StringBuilder rolls = new StringBuilder(size);
+    for (int face = 1; face <= PackedRollSet.FACES; face++) {
+      for (int k = 0; k < counts[face - 1]; k++) {
+        rolls.append((char) ('0' + face));
+      }
+    }
+    return rolls.toString();
+  }
+
+  public Multiset<Integer> toRollSet() {
+    ImmutableSortedMultiset.Builder<Integer> builder = ImmutableSortedMultiset.naturalOrder();
+    for (int face = 1; face <= PackedRollSet.FACES; face++) {
+      builder.addCopies(face, counts[face - 1]);
+    }
+    return builder.build();
+  }
+
+  // Packed with every count clamped to PackedRollSet.MAX_COUNT, as PackedRollSet.saturated does,
+  // so it is exact for any roll set of at most that many dice.
+  long packed() {
+    return packed;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof RollCounts && Arrays.equals(counts, ((RollCounts) o).counts);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(counts);
+  }
+
+  // The same form as the Multiset's: "[1 x 2, 3, 4]".
+  @Override
+  public String toString() {
+    StringBuilder string = new StringBuilder("[");
+    for (int face = 1; face <= PackedRollSet.FACES; face++) {
+      int count = counts[face - 1];
+      if (count == 0) {
+        continue;
+      }
+      if (string.length() > 1) {
+        string.append(", ");
+      }
+      string.append(face);
+      if (count > 1) {
+        string.append(" x ").append(count);
+      }
+    }
+    return string.append(']').toString();
+  }
+}
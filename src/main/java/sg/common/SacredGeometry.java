@@ -1,10 +1,5 @@
 package sg.common;
 
-import static sg.common.ExpressionUtil.postfixToInfix;
-
-import com.google.common.base.Strings;
-import com.google.common.collect.ImmutableSortedMultiset;
-import com.google.common.collect.Multiset;
 import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.Consumer;
@@ -14,38 +9,183 @@ import java.util.regex.Pattern;
 public final class SacredGeometry {
   private static final String diceExpression = "(\\d+)d([68])";
   private static final Pattern dicePattern = Pattern.compile(diceExpression);
+  private static final String BEST = "best";
+  private static final String ODDS = "odds";
+  private static final String STATS = "stats";
+  private static final String REROLL = "reroll";
+  private static final String ADD = "add";
+  // The most dice a roll may have. Pools past LargePoolPlanner.THRESHOLD are planned rather than
+  // searched, so this can safely be raised into the thousands.
+  private static final int MAX_DICE = Integer.getInteger("sg.maxDice", 20);
 
   public static void sacredGeometry(List<String> args, Consumer<String> output) {
+    sacredGeometry(args, SearchBudget.unlimited(), output);
+  }
+
+  // As above, but any search stops once the budget runs out.
+  public static void sacredGeometry(
+      List<String> args, SearchBudget budget, Consumer<String> output) {
+    sacredGeometry(args, new SolveSession(), budget, output);
+  }
+
+  // As above, remembering each roll in session so that "reroll" and "add" can change it.
+  public static void sacredGeometry(
+      List<String> args, SolveSession session, SearchBudget budget, Consumer<String> output) {
+    if (args.size() == 1 && args.get(0).equalsIgnoreCase(STATS)) {
+      output.accept("Solver statistics: ");
+      output.accept(SolverStats.global().toString());
+      return;
+    }
+
+    if (args.size() == 3 && args.get(0).equalsIgnoreCase(REROLL)) {
+      int oldDie = parseDie(args.get(1));
+      int newDie = parseDie(args.get(2));
+      SolveResult result = session.reroll(oldDie, newDie, budget);
+      output.accept("Rerolled " + oldDie + " as " + newDie + ".\n");
+      printChanged(session, result, output);
+      return;
+    }
+    if (args.size() == 2 && args.get(0).equalsIgnoreCase(ADD)) {
+      int die = parseDie(args.get(1));
+      if (session.rolls() != null && session.rolls().size() >= MAX_DICE) {
+        throw tooManyRolls();
+      }
+      SolveResult result = session.add(die, budget);
+      output.accept("Added " + die + ".\n");
+      printChanged(session, result, output);
+      return;
+    }
+
     if (args.size() != 2) {
       output.accept("Exactly 2 arguments are required for Sacred Geometry:\n");
-      output.accept("1) A dice expression (#d6 or #d8) OR string of dice rolls (from 1 to 8), between 2 and 20 dice;\n");
-      output.accept("2) A target spell level (from 1 to 9).\n");
+      output.accept("1) A dice expression (#d6 or #d8) OR string of dice rolls (from 1 to 8), between 2 and " + MAX_DICE + " dice;\n");
+      output.accept("2) A target spell level (from 1 to 9), or \"best\" for the highest level the rolls can reach,\n");
+      output.accept("   or \"odds\" for the chance a dice expression reaches each level.\n");
+      output.accept("Or \"reroll\" with the old and new roll, or \"add\" with a roll, to change the last roll;\n");
+      output.accept("or \"stats\" alone for the solver's statistics.\n");
       return;
     }
 
-    Multiset<Integer> rollSet = parseRollArg(args.get(0), output, true);
+    if (args.get(1).equalsIgnoreCase(ODDS)) {
+      odds(args.get(0), budget, output);
+      return;
+    }
+
+    RollCounts rolls = parseRollArg(args.get(0), output, true);
+
+    if (args.get(1).equalsIgnoreCase(BEST)) {
+      printBest(session.solveBest(rolls, budget), output);
+      return;
+    }
 
     Targets target = parseTargetArg(args.get(1), output);
+    printLevel(session.solve(rolls, target, budget), output);
+  }
+
+  private static void printChanged(
+      SolveSession session, SolveResult result, Consumer<String> output) {
+    output.accept("Dice rolls are: ");
+    output.accept(session.rolls().toString());
+    output.accept("\n");
+    if (session.target() == null) {
+      printBest(result, output);
+      return;
+    }
+    output.accept("Target numbers are: ");
+    output.accept(session.target().targetValues().toString());
+    output.accept("\n");
+    printLevel(result, output);
+  }
 
-    String result = SacredGeometryCalculator.calculate(rollSet, target);
-    if (!Strings.isNullOrEmpty(result)) {
-      output.accept("Result: ");
-      output.accept(postfixToInfix(result));
-      output.accept(" = ");
-      output.accept(String.valueOf(PostfixExpression.create(result).expressionResult()));
+  private static void printBest(SolveResult result, Consumer<String> output) {
+    if (result.level() == null) {
+      printUnsolved(result, "No spell level can be reached.", output);
+      return;
+    }
+    output.accept("Best spell level: ");
+    output.accept(String.valueOf(result.level().ordinal()));
+    output.accept("\n");
+    printSolved(result, output);
+  }
+
+  private static void printLevel(SolveResult result, Consumer<String> output) {
+    if (result.status() == SolveResult.Status.SOLVED) {
+      printSolved(result, output);
     } else {
-      output.accept("No result could be found.");
+      printUnsolved(result, "No result could be found.", output);
     }
   }
 
-  static Multiset<Integer> parseRollArg(String rollArg, Consumer<String> output, boolean capRolls) {
-    ImmutableSortedMultiset.Builder<Integer> builder = ImmutableSortedMultiset.naturalOrder();
+  private static void printSolved(SolveResult result, Consumer<String> output) {
+    output.accept("Result: ");
+    output.accept(result.infix());
+    output.accept(" = ");
+    output.accept(String.valueOf(result.value()));
+  }
+
+  private static void printUnsolved(
+      SolveResult result, String unsolvable, Consumer<String> output) {
+    switch (result.status()) {
+      case BUDGET_EXHAUSTED -> output.accept("No result was found within the search budget.");
+      case INCONCLUSIVE ->
+          output.accept("No result was found, but the pool is too large to rule one out.");
+      case CANCELLED -> output.accept("The search was stopped before a result was found.");
+      default -> output.accept(unsolvable);
+    }
+  }
+
+  private static void odds(String rollArg, SearchBudget budget, Consumer<String> output) {
+    Matcher diceMatcher = dicePattern.matcher(rollArg);
+    if (!diceMatcher.matches()) {
+      throw new IllegalArgumentException(
+          rollArg + " is not a valid dice expression (#d6 or #d8); odds are only given for those.");
+    }
+    int diceNumber = Integer.parseInt(diceMatcher.group(1));
+    if (diceNumber > 20 || diceNumber < 2) {
+      throw new IllegalArgumentException(
+          "The number of rolls must be between 2 and 20 (inclusive).");
+    }
+
+    SuccessOdds odds = SuccessOdds.of(Integer.parseInt(diceMatcher.group(2)), diceNumber, budget);
+    if (odds == null) {
+      output.accept(
+          "The odds for " + rollArg + " could not be worked out within the search budget.");
+      return;
+    }
+    output.accept("Chance of success with ");
+    output.accept(rollArg);
+    output.accept(":\n");
+    for (Targets target : Targets.values()) {
+      if (target != Targets.ZERO) {
+        output.accept(
+            String.format(
+                "Level %d: %s (%d of %d rolls)\n",
+                target.ordinal(),
+                odds.percentage(target),
+                odds.successes(target),
+                odds.outcomes()));
+      }
+    }
+  }
+
+  // A roll string (12345678) or dice expression (Xd6, which is rolled), within the dice limit.
+  public static RollCounts parseRolls(String rollArg) {
+    return parseRollArg(rollArg, s -> {}, true);
+  }
+
+  // A spell level from 1 to 9.
+  public static Targets parseLevel(String levelArg) {
+    return parseTargetArg(levelArg, s -> {});
+  }
+
+  static RollCounts parseRollArg(String rollArg, Consumer<String> output, boolean capRolls) {
+    int[] counts = new int[8];
 
     Matcher diceMatcher = dicePattern.matcher(rollArg);
     if (diceMatcher.matches()) {
       int diceNumber = Integer.parseInt(diceMatcher.group(1));
-      if (capRolls && (diceNumber > 20 || diceNumber < 2)) {
-        throw new IllegalArgumentException("The number of rolls must be between 2 and 20 (inclusive).");
+      if (capRolls && (diceNumber > MAX_DICE || diceNumber < 2)) {
+        throw tooManyRolls();
       }
 
       int diceSize = Integer.parseInt(diceMatcher.group(2));
@@ -53,27 +193,39 @@ public final class SacredGeometry {
       output.accept(rollArg);
       output.accept("\n");
       for (int i = 0; i < diceNumber; i++) {
-        builder.add(ThreadLocalRandom.current().nextInt(0, diceSize)+1);
+        counts[ThreadLocalRandom.current().nextInt(0, diceSize)]++;
       }
     } else {
-      if (capRolls && (rollArg.length() > 20 || rollArg.length() < 2)) {
-        throw new IllegalArgumentException("The number of rolls must be between 2 and 20 (inclusive).");
+      if (capRolls && (rollArg.length() > MAX_DICE || rollArg.length() < 2)) {
+        throw tooManyRolls();
       }
 
       for (char c : rollArg.toCharArray()) {
         switch (c) {
-          case '1', '2', '3', '4', '5', '6', '7', '8' -> builder.add(Character.getNumericValue(c));
+          case '1', '2', '3', '4', '5', '6', '7', '8' -> counts[c - '1']++;
           default -> throw new IllegalArgumentException(
               rollArg + " is not a valid dice expression (#d6 or #d8) or set of dice rolls (from 1 to 8).");
         }
       }
     }
 
-    ImmutableSortedMultiset<Integer> rollSet = builder.build();
+    RollCounts rolls = RollCounts.of(counts);
     output.accept("Dice rolls are: ");
-    output.accept(rollSet.toString());
+    output.accept(rolls.toString());
     output.accept("\n");
-    return rollSet;
+    return rolls;
+  }
+
+  private static int parseDie(String dieArg) {
+    return switch (dieArg) {
+      case "1", "2", "3", "4", "5", "6", "7", "8" -> Integer.parseInt(dieArg);
+      default -> throw new IllegalArgumentException(dieArg + " is not a valid roll (from 1 to 8).");
+    };
+  }
+
+  private static IllegalArgumentException tooManyRolls() {
+    return new IllegalArgumentException(
+        "The number of rolls must be between 2 and " + MAX_DICE + " (inclusive).");
   }
 
   static Targets parseTargetArg(String targetArg, Consumer<String> output) {
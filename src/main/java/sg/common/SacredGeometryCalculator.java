@@ -1,166 +1,555 @@
 package sg.common;
 
-import static sg.common.SetUtil.difference;
-import static sg.common.SetUtil.isSupersetOf;
-import static sg.common.SetUtil.newSet;
-
-import com.google.common.base.Strings;
-import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableMultiset;
-import com.google.common.collect.ImmutableSet;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Multiset;
 import java.io.IOException;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
 
 public final class SacredGeometryCalculator {
-  private static final Map<Targets, Map<Multiset<Integer>, PostfixExpression>> SOLUTION_SETS;
-  private static final Map<Targets, Set<Multiset<Integer>>> FAILURE_SETS;
+  // Roll sets at least this large are searched in parallel when the tables don't cover them.
+  static final int PARALLEL_THRESHOLD = Integer.getInteger("sg.parallelThreshold", 12);
+
+  // -Dsg.engine=exact searches again with ExactSearchEngine, which also divides into fractions,
+  // whenever the search finds nothing, so that a failure proves there is no solution at all. The
+  // store, tables and CACHE only record the integer search's failures, so they are only trusted
+  // for the expressions they give; what is searched in this mode is cached in EXACT_CACHE.
+  static final boolean USE_EXACT = "exact".equals(System.getProperty("sg.engine"));
+
+  private static final List<Targets> SPELL_LEVELS =
+      ImmutableList.copyOf(EnumSet.range(Targets.ONE, Targets.NINE));
+
+  private static final Map<Targets, SolutionTable> TABLES;
+  // Null unless -Dsg.store names a generated store.
+  private static final RankStore STORE;
+  private static final ResultCache CACHE = ResultCache.fromSystemProperties();
+  // Under USE_EXACT, searched results go here instead, so that a roll set is searched exactly
+  // once. Its failures are proofs, unlike CACHE's, and its expressions may hold fractions, which
+  // the file format can't, so it is never saved.
+  private static final ResultCache EXACT_CACHE =
+      USE_EXACT
+          ? new ResultCache(
+              Long.getLong(ResultCache.MAX_SIZE_PROPERTY, ResultCache.DEFAULT_MAX_SIZE), null)
+          : null;
 
   static {
-    ImmutableMap.Builder<Targets, Map<Multiset<Integer>, PostfixExpression>> solutionBuilder =
-        ImmutableMap.builder();
-    ImmutableMap.Builder<Targets, Set<Multiset<Integer>>> failureBuilder = ImmutableMap.builder();
+    TableLoadEvent event = new TableLoadEvent();
+    event.begin();
+    try {
+      TABLES = TableFile.load();
+      STORE = RankStore.load();
+      CACHE.load();
+    } catch (IOException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+    if (event.shouldCommit()) {
+      event.store = STORE != null;
+      event.cachedResults = CACHE.size();
+      event.commit();
+    }
+    if (CACHE.isPersistent()) {
+      Runtime.getRuntime()
+          .addShutdownHook(
+              new Thread(
+                  () -> {
+                    try {
+                      CACHE.save();
+                    } catch (IOException e) {
+                      System.err.println("Could not save the result cache: " + e.getMessage());
+                    }
+                  }));
+    }
+  }
 
-    for (Targets t : Targets.values()) {
-      Map<Multiset<Integer>, PostfixExpression> solutionSet;
-      try {
-        solutionSet = FileUtil.readSolutionFile(t.fileName());
-      } catch (IOException e) {
-        solutionSet = ImmutableMap.of();
-      }
-      solutionBuilder.put(t, solutionSet);
+  static SolutionTable table(Targets target) {
+    return TABLES.get(target);
+  }
+
+  static RankStore store() {
+    return STORE;
+  }
 
-      Set<Multiset<Integer>> failureSet;
-      try {
-        failureSet = FileUtil.readFailureFile(t.fileName());
-      } catch (IOException e) {
-        failureSet = ImmutableSet.of();
+  // The postfix form of calculateExpression, or "" if there is no solution.
+  public static String calculate(Multiset<Integer> rollSet, Targets target) {
+    PostfixExpression result = calculateExpression(rollSet, target);
+    return result != null ? result.expressionString() : "";
+  }
+
+  // An expression combining every roll to one of the target's primes, or null if there is none.
+  public static PostfixExpression calculateExpression(Multiset<Integer> rollSet, Targets target) {
+    return calculateExpression(rollSet, target, SearchControl.unlimited());
+  }
+
+  // Like calculateExpression, but gives up once the budget runs out. The result says whether the
+  // roll set was solved, proven to fail, or stopped short, and how much searching it took.
+  // Every result is added to SolverStats.global().
+  public static SolveResult solve(Multiset<Integer> rollSet, Targets target, SearchBudget budget) {
+    SolveEvent event = new SolveEvent();
+    event.begin();
+    long start = System.nanoTime();
+    SearchControl control = new SearchControl(budget);
+    PostfixExpression expression = calculateExpression(rollSet, target, control);
+    Targets level = expression != null ? target : null;
+    return finish(event, start, control, expression, level, rollSet.size(), target.ordinal());
+  }
+
+  // As above, for rolls already counted. Table, store and cache answers are found from the counts
+  // alone; nothing is parsed or formatted.
+  public static SolveResult solve(RollCounts rolls, Targets target, SearchBudget budget) {
+    SolveEvent event = new SolveEvent();
+    event.begin();
+    long start = System.nanoTime();
+    SearchControl control = new SearchControl(budget);
+    PostfixExpression expression = calculateExpression(rolls, target, control);
+    Targets level = expression != null ? target : null;
+    return finish(event, start, control, expression, level, rolls.size(), target.ordinal());
+  }
+
+  // Records the request on SolverStats and its event. eventLevel is 0 for a best-level request.
+  static SolveResult finish(
+      SolveEvent event,
+      long start,
+      SearchControl control,
+      PostfixExpression expression,
+      Targets level,
+      int dice,
+      int eventLevel) {
+    SolveResult result = control.outcome(expression, level, System.nanoTime() - start);
+    SolverStats.global().record(result);
+    if (event.shouldCommit()) {
+      event.dice = dice;
+      event.level = eventLevel;
+      event.status = result.status().name();
+      event.resolution = result.resolution() != null ? result.resolution().name() : null;
+      event.nodes = result.nodes();
+      event.memoHits = result.memoHits();
+      event.maxDepth = result.maxDepth();
+      event.commit();
+    }
+    return result;
+  }
+
+  static PostfixExpression calculateExpression(
+      Multiset<Integer> rollSet, Targets target, SearchControl control) {
+    return PackedRollSet.isPackable(rollSet)
+        ? calculateExpression(RollCounts.of(rollSet), target, control)
+        : search(rollSet, target, control);
+  }
+
+  static PostfixExpression calculateExpression(
+      RollCounts rolls, Targets target, SearchControl control) {
+    Optional<PostfixExpression> known = known(rolls, target, control);
+    return known != null ? known.orElse(null) : calculateUnknown(rolls, target, control);
+  }
+
+  // The store or table answer, empty if the roll set is a known failure, or null if it has to be
+  // planned or searched.
+  static Optional<PostfixExpression> known(
+      RollCounts rolls, Targets target, SearchControl control) {
+    if (STORE != null && STORE.covers(rolls)) {
+      control.resolved(Resolution.STORE);
+      Optional<PostfixExpression> stored =
+          trusted(Optional.ofNullable(STORE.expression(rolls.packed(), target)));
+      if (stored != null) {
+        return stored;
       }
-      failureBuilder.put(t, failureSet);
     }
 
-    SOLUTION_SETS = solutionBuilder.build();
-    FAILURE_SETS = failureBuilder.build();
+    LookupEvent lookupEvent = new LookupEvent();
+    lookupEvent.begin();
+    Optional<PostfixExpression> known = trusted(lookup(rolls, target, control));
+    if (lookupEvent.shouldCommit()) {
+      lookupEvent.dice = rolls.size();
+      lookupEvent.level = target.ordinal();
+      lookupEvent.result = known != null ? String.valueOf(control.resolution()) : "MISS";
+      lookupEvent.commit();
+    }
+    return known;
   }
 
-  public static String calculate(Multiset<Integer> rollSet, Targets target) {
-    if (FAILURE_SETS.get(target).contains(rollSet)) {
-      return "";
+  // The answer for a roll set known() has no answer for, from the planner, cache or a search.
+  static PostfixExpression calculateUnknown(
+      RollCounts rolls, Targets target, SearchControl control) {
+    if (LargePoolPlanner.applies(rolls)) {
+      PostfixExpression planned = LargePoolPlanner.plan(rolls, target, control);
+      control.resolved(Resolution.LARGE_POOL);
+      return planned;
     }
 
-    for (Entry<Multiset<Integer>, PostfixExpression> e : SOLUTION_SETS.get(target).entrySet()) {
-      if (!isSupersetOf(rollSet, e.getKey())) {
-        continue;
+    // Only searched results are cached; the tables already answer everything else quickly. Any
+    // roll set this small has at most MAX_COUNT of each roll, so it packs exactly.
+    boolean cacheable = rolls.size() <= PackedRollSet.MAX_COUNT;
+    long key = rolls.packed();
+    if (cacheable) {
+      Optional<PostfixExpression> known = cached(key, target);
+      if (known != null) {
+        control.resolved(Resolution.CACHE);
+        return known.orElse(null);
       }
+    }
+
+    PostfixExpression result = search(rolls.toRollSet(), target, control);
+    // A stopped search gives up early, so finding nothing doesn't mean the roll set fails.
+    if (cacheable && control.stopReason() == null) {
+      cache(key, target, Optional.ofNullable(result));
+    }
+    return result;
+  }
+
+  // Under USE_EXACT, a known failure as null, so that it is searched again.
+  private static Optional<PostfixExpression> trusted(Optional<PostfixExpression> known) {
+    return USE_EXACT && known != null && known.isEmpty() ? null : known;
+  }
 
-      if (rollSet.size() == e.getKey().size()) {
-        return e.getValue().expressionString();
+  // The cached result for a searched roll set, or null if there is none to trust.
+  private static Optional<PostfixExpression> cached(long key, Targets target) {
+    if (USE_EXACT) {
+      Optional<PostfixExpression> known = EXACT_CACHE.get(key, target);
+      if (known != null) {
+        return known;
       }
+    }
+    return trusted(CACHE.get(key, target));
+  }
 
-      Multiset<Integer> remainderSet = difference(rollSet, e.getKey());
-      if (FAILURE_SETS.get(Targets.ZERO).contains(remainderSet)) {
-        continue;
+  private static void cache(long key, Targets target, Optional<PostfixExpression> result) {
+    (USE_EXACT ? EXACT_CACHE : CACHE).put(key, target, result);
+  }
+
+  private static PostfixExpression search(
+      Multiset<Integer> rollSet, Targets target, SearchControl control) {
+    boolean parallel =
+        rollSet.size() >= PARALLEL_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1;
+    control.resolved(parallel ? Resolution.PARALLEL_SEARCH : Resolution.SEARCH);
+    SearchEvent event = startSearch(control);
+    PostfixExpression result =
+        parallel
+            ? ParallelSearch.search(rollSet, target.targetValues(), control)
+            : new SearchEngine(rollSet, target.targetValues(), control).search();
+    endSearch(event, control, rollSet.size(), String.valueOf(target.ordinal()), parallel);
+    if (result == null && USE_EXACT && !control.isStopped()) {
+      control.resolved(Resolution.EXACT_SEARCH);
+      event = startSearch(control);
+      result = new ExactSearchEngine(rollSet, target.targetValues(), control).search();
+      endSearch(event, control, rollSet.size(), String.valueOf(target.ordinal()), false);
+    }
+    return result;
+  }
+
+  // An expression for every spell level (ONE to NINE) the roll set can reach. Levels the tables
+  // or cache don't answer are all searched for in one pass.
+  public static Map<Targets, PostfixExpression> calculateLevels(Multiset<Integer> rollSet) {
+    return calculateLevels(rollSet, false, SearchControl.unlimited());
+  }
+
+  // As above, stopping once control does.
+  static Map<Targets, PostfixExpression> calculateLevels(
+      Multiset<Integer> rollSet, SearchControl control) {
+    return calculateLevels(rollSet, false, control);
+  }
+
+  // The highest spell level the roll set can reach, with its expression, or null if it can't
+  // reach any. Levels are checked from the top, and only those above the best found so far are
+  // searched for.
+  public static Map.Entry<Targets, PostfixExpression> calculateBest(Multiset<Integer> rollSet) {
+    return calculateBest(rollSet, SearchBudget.unlimited());
+  }
+
+  // Like calculateBest, but stops searching once the budget runs out and returns the best level
+  // found by then, which may not be the best there is.
+  public static Map.Entry<Targets, PostfixExpression> calculateBest(
+      Multiset<Integer> rollSet, SearchBudget budget) {
+    SolveResult result = solveBest(rollSet, budget);
+    return result.level() != null ? Map.entry(result.level(), result.expression()) : null;
+  }
+
+  // calculateBest as a SolveResult, whose level is the best one found. Solved means some level
+  // was reached; unsolvable that none can be. Every result is added to SolverStats.global().
+  public static SolveResult solveBest(Multiset<Integer> rollSet, SearchBudget budget) {
+    SolveEvent event = new SolveEvent();
+    event.begin();
+    long start = System.nanoTime();
+    SearchControl control = new SearchControl(budget);
+    Map<Targets, PostfixExpression> levels = calculateLevels(rollSet, true, control);
+    Targets best = levels.isEmpty() ? null : Collections.max(levels.keySet());
+    PostfixExpression expression = best != null ? levels.get(best) : null;
+    return finish(event, start, control, expression, best, rollSet.size(), 0);
+  }
+
+  // As above, for rolls already counted.
+  public static SolveResult solveBest(RollCounts rolls, SearchBudget budget) {
+    SolveEvent event = new SolveEvent();
+    event.begin();
+    long start = System.nanoTime();
+    SearchControl control = new SearchControl(budget);
+    Map<Targets, PostfixExpression> levels = calculateLevels(rolls, true, control);
+    Targets best = levels.isEmpty() ? null : Collections.max(levels.keySet());
+    PostfixExpression expression = best != null ? levels.get(best) : null;
+    return finish(event, start, control, expression, best, rolls.size(), 0);
+  }
+
+  private static Map<Targets, PostfixExpression> calculateLevels(
+      Multiset<Integer> rollSet, boolean bestOnly, SearchControl control) {
+    return PackedRollSet.isPackable(rollSet)
+        ? calculateLevels(RollCounts.of(rollSet), bestOnly, control)
+        : searchLevels(rollSet, Lists.reverse(SPELL_LEVELS), bestOnly, control);
+  }
+
+  private static Map<Targets, PostfixExpression> calculateLevels(
+      RollCounts rolls, boolean bestOnly, SearchControl control) {
+    if (STORE != null && STORE.covers(rolls) && !USE_EXACT) {
+      control.resolved(Resolution.STORE);
+      return storedLevels(rolls.packed(), bestOnly);
+    }
+
+    boolean cacheable = rolls.size() <= PackedRollSet.MAX_COUNT;
+    long key = rolls.packed();
+
+    Map<Targets, PostfixExpression> levels = new EnumMap<>(Targets.class);
+    List<Targets> unresolved = new ArrayList<>();
+    for (Targets target : Lists.reverse(SPELL_LEVELS)) {
+      Optional<PostfixExpression> known = trusted(lookup(rolls, target, control));
+      if (known == null && cacheable) {
+        known = cached(key, target);
+        if (known != null) {
+          control.resolved(Resolution.CACHE);
+        }
+      }
+      if (known == null) {
+        unresolved.add(target);
+      } else if (known.isPresent()) {
+        levels.put(target, known.get());
+        if (bestOnly) {
+          break;
+        }
       }
+    }
+    if (unresolved.isEmpty()) {
+      return levels;
+    }
+    if (LargePoolPlanner.applies(rolls)) {
+      for (Targets target : unresolved) {
+        PostfixExpression planned = LargePoolPlanner.plan(rolls, target, control);
+        if (planned != null) {
+          levels.put(target, planned);
+          if (bestOnly) {
+            break;
+          }
+        }
+      }
+      control.resolved(Resolution.LARGE_POOL);
+      return levels;
+    }
+
+    Map<Targets, PostfixExpression> searched =
+        searchLevels(rolls.toRollSet(), unresolved, bestOnly, control);
+    levels.putAll(searched);
 
-      for (Entry<Multiset<Integer>, PostfixExpression> z :
-          SOLUTION_SETS.get(Targets.ZERO).entrySet()) {
-        if (!isSupersetOf(remainderSet, z.getKey())) {
-          continue;
+    // A best-only pass stops looking for a level once a higher one is found, so it only proves the
+    // levels above the best unreachable.
+    Targets best = levels.isEmpty() ? null : Collections.max(levels.keySet());
+    if (cacheable && control.stopReason() == null) {
+      for (Targets target : unresolved) {
+        PostfixExpression result = searched.get(target);
+        if (result != null || !bestOnly || best == null || target.compareTo(best) > 0) {
+          cache(key, target, Optional.ofNullable(result));
         }
+      }
+    }
+    return levels;
+  }
 
-        StringBuilder result = new StringBuilder().append(e.getValue()).append(z.getValue());
+  private static Map<Targets, PostfixExpression> searchLevels(
+      Multiset<Integer> rollSet, List<Targets> levels, boolean bestOnly, SearchControl control) {
+    control.resolved(Resolution.SEARCH);
+    SearchEvent event = startSearch(control);
+    Map<Targets, PostfixExpression> searched =
+        SearchEngine.forLevels(rollSet, levels, bestOnly, control).searchLevels();
+    endSearch(event, control, rollSet.size(), levels.toString(), false);
+    if (USE_EXACT && !control.isStopped()) {
+      searchLevelsExactly(rollSet, levels, bestOnly, searched, control);
+    }
+    return searched;
+  }
 
-        for (Integer i : difference(remainderSet, z.getKey())) {
-          result.append(i).append(Operators.MULT.character());
+  // Adds what ExactSearchEngine finds for the levels the search didn't, one level at a time in
+  // the order given (highest first). With bestOnly, levels below the best found are skipped.
+  private static void searchLevelsExactly(
+      Multiset<Integer> rollSet,
+      List<Targets> levels,
+      boolean bestOnly,
+      Map<Targets, PostfixExpression> searched,
+      SearchControl control) {
+    for (Targets level : levels) {
+      if (bestOnly && searched.containsKey(level)) {
+        return;
+      }
+      if (searched.containsKey(level)) {
+        continue;
+      }
+      control.resolved(Resolution.EXACT_SEARCH);
+      SearchEvent event = startSearch(control);
+      PostfixExpression result =
+          new ExactSearchEngine(rollSet, level.targetValues(), control).search();
+      endSearch(event, control, rollSet.size(), String.valueOf(level.ordinal()), false);
+      if (control.isStopped()) {
+        return;
+      }
+      if (result != null) {
+        searched.put(level, result);
+        if (bestOnly) {
+          return;
         }
-        return result.append(Operators.ADD.character()).toString();
       }
     }
+  }
 
-    return calculateWithoutLookup(rollSet, target);
+  private static Map<Targets, PostfixExpression> storedLevels(long rollSet, boolean bestOnly) {
+    Map<Targets, PostfixExpression> levels = new EnumMap<>(Targets.class);
+    int reachable = STORE.levels(rollSet);
+    for (Targets target : Lists.reverse(SPELL_LEVELS)) {
+      if ((reachable & 1 << target.ordinal()) != 0) {
+        levels.put(target, STORE.expression(rollSet, target));
+        if (bestOnly) {
+          break;
+        }
+      }
+    }
+    return levels;
   }
 
-  static String calculateWithoutLookup(Multiset<Integer> rollSet, Targets targets) {
-    ImmutableMultiset.Builder<PostfixExpression> exps = ImmutableMultiset.builder();
+  public static CacheStats cacheStats() {
+    return CACHE.stats();
+  }
 
-    for (Multiset.Entry<Integer> e : rollSet.entrySet()) {
-      exps.addCopies(PostfixExpression.create(e.getElement()), e.getCount());
+  public static long cacheSize() {
+    return CACHE.size();
+  }
+
+  // The node count is kept on the event until the search ends, so a search with nothing else
+  // recorded against it reports only its own nodes.
+  private static SearchEvent startSearch(SearchControl control) {
+    SearchEvent event = new SearchEvent();
+    event.begin();
+    event.nodes = control.nodes();
+    event.memoHits = control.memoHits();
+    return event;
+  }
+
+  private static void endSearch(
+      SearchEvent event, SearchControl control, int dice, String levels, boolean parallel) {
+    if (event.shouldCommit()) {
+      event.dice = dice;
+      event.levels = levels;
+      event.parallel = parallel;
+      event.nodes = control.nodes() - event.nodes;
+      event.memoHits = control.memoHits() - event.memoHits;
+      event.maxDepth = control.maxDepth();
+      event.stopped = control.stopReason() != null ? control.stopReason().name() : null;
+      event.commit();
     }
+  }
 
-    return calculateHelper(new HashSet<>(), exps.build(), targets.targetValues());
+  // Returns the table answer, empty if the roll set is a known failure, or null if the tables can't
+  // resolve it.
+  static Optional<PostfixExpression> lookup(RollCounts rolls, Targets target) {
+    return lookup(rolls, target, null);
   }
 
-  static String calculateHelper(
-      Set<Multiset<Long>> valueSets, Multiset<PostfixExpression> exps, Set<Long> targetSet) {
-    Set<Long> iSet;
-    Set<Long> jSet;
-    String result;
+  // As above, also recording on control (if given) how the tables answered.
+  private static Optional<PostfixExpression> lookup(
+      RollCounts rollCounts, Targets target, SearchControl control) {
+    SolutionTable table = TABLES.get(target);
+    SolutionTable zeroTable = TABLES.get(Targets.ZERO);
 
-    // No point evaluating this set if we've already encountered a similar set; we know it'll fail.
-    ImmutableMultiset<Long> currentValueSet =
-        ImmutableMultiset.<Long>builder()
-            .addAll(exps.stream().map(PostfixExpression::expressionResult).iterator())
-            .build();
-    if (valueSets.contains(currentValueSet)) {
-      return "";
+    long rolls = rollCounts.packed();
+    int rollCount = rollCounts.size();
+    if (table.isFailure(rolls)) {
+      resolved(control, Resolution.TABLE_FAILURE);
+      return Optional.empty();
     }
-    valueSets.add(currentValueSet);
 
-    // We've condensed down to one expression; it may be a solution.
-    if (exps.size() <= 1) {
-      for (PostfixExpression expression : exps) {
-        return targetSet.contains(expression.expressionResult())
-            ? expression.expressionString()
-            : "";
+    for (int i = table.nextPatternIn(rolls, rollCount, 0);
+        i >= 0;
+        i = table.nextPatternIn(rolls, rollCount, i + 1)) {
+      if (rollCount == table.patternSize(i)) {
+        resolved(control, Resolution.TABLE);
+        return Optional.of(table.expression(i));
       }
-      return "";
-    }
 
-    iSet = new HashSet<>();
-    for (PostfixExpression exp1 : exps.elementSet()) {
-      if (iSet.contains(exp1.expressionResult())) {
+      long remainder = PackedRollSet.minus(rolls, table.pattern(i));
+      if (zeroTable.isFailure(remainder)) {
         continue;
       }
-      iSet.add(exp1.expressionResult());
-      jSet = new HashSet<>();
-      for (PostfixExpression exp2 : exps.elementSet()) {
-        if (exp1 == exp2 && exps.count(exp1) == 1) {
-          continue; // Don't operate an expression against itself, unless present more than once
-        }
-        if (jSet.contains(exp2.expressionResult())) {
-          continue;
-        }
-        jSet.add(exp2.expressionResult());
-
-        for (Operators operator : Operators.ADD_SUB_MULT) {
-          result =
-              calculateHelper(
-                  valueSets,
-                  newSet(PostfixExpression.create(exp1, exp2, operator), exps, exp1, exp2),
-                  targetSet);
-          if (!Strings.isNullOrEmpty(result)) {
-            return result;
-          }
-        }
 
-        if (exp2.expressionResult() == 0
-            || exp1.expressionResult() % exp2.expressionResult() != 0) {
-          continue;
-        }
-        result =
-            calculateHelper(
-                valueSets,
-                newSet(PostfixExpression.create(exp1, exp2, Operators.DIV), exps, exp1, exp2),
-                targetSet);
-        if (!Strings.isNullOrEmpty(result)) {
-          return result;
+      int z = zeroTable.nextPatternIn(remainder, rollCount - table.patternSize(i), 0);
+      if (z < 0) {
+        continue;
+      }
+
+      PostfixExpression zero = zeroTable.expression(z);
+
+      // Whatever is left is multiplied into the zero, using the true (unsaturated) counts.
+      for (int face = 1; face <= PackedRollSet.FACES; face++) {
+        int left =
+            rollCounts.count(face)
+                - PackedRollSet.count(table.pattern(i), face)
+                - PackedRollSet.count(zeroTable.pattern(z), face);
+        for (int k = 0; k < left; k++) {
+          zero = PostfixExpression.create(zero, PostfixExpression.create(face), Operators.MULT);
         }
       }
+      resolved(control, Resolution.PATTERN_AND_ZERO);
+      return Optional.of(PostfixExpression.create(table.expression(i), zero, Operators.ADD));
     }
 
-    return "";
+    return null;
+  }
+
+  private static void resolved(SearchControl control, Resolution how) {
+    if (control != null) {
+      control.resolved(how);
+    }
+  }
+
+  // The same check as lookup on an exactly packed roll set, without building an expression: true
+  // if the tables reach the target, false if the roll set is a known failure, or null if it would
+  // have to be searched.
+  static Boolean resolves(long rolls, int rollCount, Targets target) {
+    SolutionTable table = TABLES.get(target);
+    SolutionTable zeroTable = TABLES.get(Targets.ZERO);
+    if (table.isFailure(rolls)) {
+      return false;
+    }
+
+    for (int i = table.nextPatternIn(rolls, rollCount, 0);
+        i >= 0;
+        i = table.nextPatternIn(rolls, rollCount, i + 1)) {
+      if (rollCount == table.patternSize(i)) {
+        return true;
+      }
+      long remainder = PackedRollSet.minus(rolls, table.pattern(i));
+      if (!zeroTable.isFailure(remainder)
+          && zeroTable.nextPatternIn(remainder, rollCount - table.patternSize(i), 0) >= 0) {
+        return true;
+      }
+    }
+    return null;
+  }
+
+  public static PostfixExpression calculateParallel(Multiset<Integer> rollSet, Targets targets) {
+    return ParallelSearch.search(rollSet, targets.targetValues());
+  }
+
+  static PostfixExpression calculateWithoutLookup(Multiset<Integer> rollSet, Targets targets) {
+    return new SearchEngine(rollSet, targets.targetValues()).search();
   }
 }
@@ -0,0 +1,61 @@
+package sg.common;
+
+import java.time.Duration;
+
+// How long a solve may search: a deadline, a number of search nodes, a cancellation token, or any
+// mix of them. Budgets are immutable; each with* method returns a new one.
+//
+// The search checks its budget every few thousand nodes rather than on every one, so it may run
+// slightly past either limit.
+public final class SearchBudget {
+  private static final SearchBudget UNLIMITED = new SearchBudget(false, 0, Long.MAX_VALUE, null);
+
+  private final boolean hasDeadline;
+  // In System.nanoTime terms.
+  private final long deadline;
+  private final long maxNodes;
+  private final CancellationToken token;
+
+  private SearchBudget(boolean hasDeadline, long deadline, long maxNodes, CancellationToken token) {
+    this.hasDeadline = hasDeadline;
+    this.deadline = deadline;
+    this.maxNodes = maxNodes;
+    this.token = token;
+  }
+
+  public static SearchBudget unlimited() {
+    return UNLIMITED;
+  }
+
+  // Ends the search once timeout has passed, counted from now.
+  public SearchBudget withTimeout(Duration timeout) {
+    return withDeadline(System.nanoTime() + timeout.toNanos());
+  }
+
+  // Ends the search once System.nanoTime reaches nanoTime.
+  public SearchBudget withDeadline(long nanoTime) {
+    return new SearchBudget(true, nanoTime, maxNodes, token);
+  }
+
+  public SearchBudget withMaxNodes(long nodes) {
+    if (nodes < 0) {
+      throw new IllegalArgumentException("The node budget cannot be negative.");
+    }
+    return new SearchBudget(hasDeadline, deadline, nodes, token);
+  }
+
+  public SearchBudget withCancellation(CancellationToken cancellation) {
+    return new SearchBudget(hasDeadline, deadline, maxNodes, cancellation);
+  }
+
+  // Why a search that has expanded nodes so far has to stop, or null if it can go on.
+  SolveResult.Status check(long nodes) {
+    if (token != null && token.isCancelled()) {
+      return SolveResult.Status.CANCELLED;
+    }
+    if (nodes >= maxNodes || (hasDeadline && System.nanoTime() - deadline >= 0)) {
+      return SolveResult.Status.BUDGET_EXHAUSTED;
+    }
+    return null;
+  }
+}
@@ -0,0 +1,125 @@
+package sg.common;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// The stop flag, node count and budget shared by every engine working on one solve, along with
+// the rest of its statistics. Engines read the flag on every node, but only report nodes (and so
+// check the budget) every few thousand. The flag is only set when the whole solve has to stop (its
+// budget ran out, it was cancelled, or an exact search overflowed) and is never cleared, so a
+// search that merely finishes early, such as ParallelSearch, uses a flag of its own.
+final class SearchControl {
+  private final SearchBudget budget;
+  private final AtomicBoolean stopped = new AtomicBoolean();
+  private final AtomicLong nodes = new AtomicLong();
+  private final AtomicLong memoHits = new AtomicLong();
+  private final AtomicInteger maxDepth = new AtomicInteger();
+  private volatile SolveResult.Status stopReason;
+  private volatile boolean inconclusive;
+  private volatile Resolution resolution;
+
+  SearchControl(SearchBudget budget) {
+    this.budget = budget;
+  }
+
+  static SearchControl unlimited() {
+    return new SearchControl(SearchBudget.unlimited());
+  }
+
+  boolean isStopped() {
+    return stopped.get();
+  }
+
+  void cancel() {
+    stop(SolveResult.Status.CANCELLED);
+  }
+
+  // An exact search that skipped merges overflowing a long has, like one out of budget, not tried
+  // everything, so its finding nothing isn't a proof (nor cached as one).
+  void overflowed() {
+    stop(SolveResult.Status.BUDGET_EXHAUSTED);
+  }
+
+  // Records that a method that isn't exhaustive found nothing, so that finding nothing isn't
+  // reported as a proof. Unlike a stop, the rest of the solve carries on.
+  void inconclusive() {
+    inconclusive = true;
+  }
+
+  // Counts newNodes more expanded nodes, and stops the solve if the budget has run out or the
+  // calling thread was interrupted. True if the search should stop.
+  boolean record(long newNodes) {
+    SolveResult.Status reason =
+        Thread.currentThread().isInterrupted()
+            ? SolveResult.Status.CANCELLED
+            : budget.check(nodes.addAndGet(newNodes));
+    if (reason != null) {
+      stop(reason);
+    }
+    return stopped.get();
+  }
+
+  // Adds an engine's remaining statistics when it finishes, without checking the budget.
+  void finished(long newNodes, long engineMemoHits, int engineMaxDepth) {
+    nodes.addAndGet(newNodes);
+    memoHits.addAndGet(engineMemoHits);
+    maxDepth.accumulateAndGet(engineMaxDepth, Math::max);
+  }
+
+  // Records how the solve was answered. A later call replaces an earlier one, so a large pool
+  // ends up as LARGE_POOL whatever answered its core.
+  void resolved(Resolution how) {
+    resolution = how;
+  }
+
+  SolveResult outcome(PostfixExpression expression, Targets level, long elapsedNanos) {
+    SolveResult.Status status;
+    if (expression != null) {
+      status = SolveResult.Status.SOLVED;
+    } else if (stopReason != null) {
+      status = stopReason;
+    } else if (inconclusive) {
+      status = SolveResult.Status.INCONCLUSIVE;
+    } else {
+      status = SolveResult.Status.UNSOLVABLE;
+    }
+    return new SolveResult(
+        status,
+        expression,
+        level,
+        resolution,
+        nodes.get(),
+        memoHits.get(),
+        maxDepth.get(),
+        elapsedNanos);
+  }
+
+  // Why the solve was stopped short, or null if it wasn't.
+  SolveResult.Status stopReason() {
+    return stopReason;
+  }
+
+  long nodes() {
+    return nodes.get();
+  }
+
+  Resolution resolution() {
+    return resolution;
+  }
+
+  long memoHits() {
+    return memoHits.get();
+  }
+
+  int maxDepth() {
+    return maxDepth.get();
+  }
+
+  private void stop(SolveResult.Status reason) {
+    if (stopReason == null) {
+      stopReason = reason;
+    }
+    stopped.set(true);
+  }
+}
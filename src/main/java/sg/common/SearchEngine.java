@@ -0,0 +1,524 @@
+package sg.common;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multiset;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+final class SearchEngine {
+  private static final int CHECK_MASK = (1 << 12) - 1;
+  // States with this many values or fewer (2 to 4) are finished by the unrolled endgame rather
+  // than searched; 1 leaves every state to the search.
+  static final int ENDGAME = Math.max(1, Math.min(4, Integer.getInteger("sg.endgame", 3)));
+  // Targets below this are also kept as a bitmask, so most values are ruled out in one test.
+  private static final long MASK_LIMIT = 1 << 12;
+
+  private final int endgame;
+  private long[] targets;
+  // Bit v is set if v is a target, or null if a target is at or above MASK_LIMIT.
+  private long[] targetMask;
+  // The level of each target when searching several levels at once, otherwise null.
+  private Targets[] targetLevels;
+  // Whether finding a level also drops every level below it.
+  private boolean higherOnly;
+  private final SearchControl control;
+  // Set once another engine on the same search has found a result, or null if there is none.
+  private final AtomicBoolean done;
+
+  // Live values, in no particular order; slots holds the expression node for each value.
+  private final long[] values;
+  private final int[] slots;
+  private int size;
+  private long hash;
+
+  // Expression nodes. The first leafCount are the starting values; the merge performed at depth d
+  // is stored at leafCount + d, and is overwritten whenever the search backtracks past it.
+  private final int leafCount;
+  private final PostfixExpression[] leafExpressions;
+  private final int[] lefts;
+  private final int[] rights;
+  private final Operators[] operators;
+
+  private final StateSet visited;
+
+  private PostfixExpression result;
+  private final Map<Targets, PostfixExpression> levelResults = new EnumMap<>(Targets.class);
+  private long nodes;
+  // States skipped because the visited set already had them, and the deepest merge reached.
+  private long memoHits;
+  private int maxDepth;
+
+  SearchEngine(Multiset<Integer> rollSet, Set<Long> targetSet) {
+    this(rollSet, targetSet, SearchControl.unlimited());
+  }
+
+  SearchEngine(Multiset<Integer> rollSet, Set<Long> targetSet, SearchControl control) {
+    this(
+        rollSet.stream().mapToLong(Integer::longValue).toArray(),
+        rollSet.stream().map(PostfixExpression::create).toArray(PostfixExpression[]::new),
+        toArray(targetSet),
+        new VisitedStates(),
+        control);
+  }
+
+  // Starts the search from partially combined values, each given with its expression.
+  SearchEngine(
+      long[] startValues,
+      PostfixExpression[] startExpressions,
+      long[] targets,
+      StateSet visited,
+      SearchControl control) {
+    this(startValues, startExpressions, targets, visited, control, null, ENDGAME);
+  }
+
+  SearchEngine(
+      long[] startValues,
+      PostfixExpression[] startExpressions,
+      long[] targets,
+      StateSet visited,
+      SearchControl control,
+      int endgame) {
+    this(startValues, startExpressions, targets, visited, control, null, endgame);
+  }
+
+  // One of several engines on the same search, which stop once done is set.
+  SearchEngine(
+      long[] startValues,
+      PostfixExpression[] startExpressions,
+      long[] targets,
+      StateSet visited,
+      SearchControl control,
+      AtomicBoolean done) {
+    this(startValues, startExpressions, targets, visited, control, done, ENDGAME);
+  }
+
+  private SearchEngine(
+      long[] startValues,
+      PostfixExpression[] startExpressions,
+      long[] targets,
+      StateSet visited,
+      SearchControl control,
+      AtomicBoolean done,
+      int endgame) {
+    this.done = done;
+    this.endgame = endgame;
+    setTargets(targets);
+    this.visited = visited;
+    this.control = control;
+
+    leafCount = startValues.length;
+    values = startValues.clone();
+    slots = new int[leafCount];
+    leafExpressions = startExpressions;
+    lefts = new int[Math.max(2 * leafCount - 1, 0)];
+    rights = new int[lefts.length];
+    operators = new Operators[lefts.length];
+
+    for (int i = 0; i < leafCount; i++) {
+      slots[i] = i;
+    }
+    size = leafCount;
+    hash = StateHash.of(values, size);
+  }
+
+  // Searches for all of levels at once; see searchLevels. With higherOnly, once a level is found
+  // only the levels above it are searched for, which is all that finding the best level needs.
+  static SearchEngine forLevels(
+      Multiset<Integer> rollSet, Collection<Targets> levels, boolean higherOnly) {
+    return forLevels(rollSet, levels, higherOnly, SearchControl.unlimited());
+  }
+
+  static SearchEngine forLevels(
+      Multiset<Integer> rollSet,
+      Collection<Targets> levels,
+      boolean higherOnly,
+      SearchControl control) {
+    SearchEngine engine = new SearchEngine(rollSet, ImmutableSet.of(), control);
+    engine.setTargets(
+        levels.stream().flatMap(t -> t.targetValues().stream()).mapToLong(v -> v).toArray());
+    engine.targetLevels =
+        levels.stream()
+            .flatMap(t -> t.targetValues().stream().map(v -> t))
+            .toArray(Targets[]::new);
+    engine.higherOnly = higherOnly;
+    return engine;
+  }
+
+  static long[] toArray(Set<Long> targetSet) {
+    return targetSet.stream().mapToLong(Long::longValue).toArray();
+  }
+
+  // The expression reaching a target, or null if there is none.
+  PostfixExpression search() {
+    if (size > 0) {
+      search(0);
+    }
+    control.finished(nodes & CHECK_MASK, memoHits, maxDepth);
+    return result;
+  }
+
+  // Nodes expanded so far.
+  long nodes() {
+    return nodes;
+  }
+
+  // An expression for each level found. Levels are dropped from the targets as they
+  // are found, and the search ends early once none are left. Every state already visited has
+  // failed for a superset of the remaining targets, so the visited set stays valid throughout.
+  Map<Targets, PostfixExpression> searchLevels() {
+    if (size > 0 && targets.length > 0) {
+      search(0);
+    }
+    control.finished(nodes & CHECK_MASK, memoHits, maxDepth);
+    return levelResults;
+  }
+
+  StateSet visitedStates() {
+    return visited;
+  }
+
+  private boolean search(int depth) {
+    if (control.isStopped() || (done != null && done.get())) {
+      return false;
+    }
+    // The budget (and an interrupted caller, e.g. a timed-out bot request) is checked
+    // periodically, since reading the clock and the thread's flag on every node isn't free.
+    if ((++nodes & CHECK_MASK) == 0 && control.record(CHECK_MASK + 1)) {
+      return false;
+    }
+
+    // No point evaluating this set if we've already encountered a similar set; we know it'll fail.
+    if (!visited.add(hash)) {
+      memoHits++;
+      return false;
+    }
+    if (depth > maxDepth) {
+      maxDepth = depth;
+    }
+
+    // We've condensed down to one value; it may be a solution.
+    if (size == 1) {
+      return reached(values[0], leafCount + depth, slots[0]);
+    }
+    if (size <= endgame) {
+      return size == 2
+          ? endgame2(depth, values[0], slots[0], values[1], slots[1])
+          : size == 3
+              ? endgame3(depth, values[0], slots[0], values[1], slots[1], values[2], slots[2])
+              : endgame4(depth);
+    }
+
+    // Each unordered pair is combined once, larger value first, so subtraction only gives |a - b|
+    // and division is only tried as larger / smaller. Values therefore never go negative, and every
+    // expression's value is still reached up to its sign; the targets are all non-negative.
+    for (int i = 0; i < size; i++) {
+      if (hasEarlierDuplicate(i, -1)) {
+        continue;
+      }
+      for (int j = i + 1; j < size; j++) {
+        if (hasEarlierDuplicate(j, i)) {
+          continue;
+        }
+        if (values[i] >= values[j] ? mergeAll(depth, i, j) : mergeAll(depth, j, i)) {
+          return true;
+        }
+      }
+    }
+
+    return false;
+  }
+
+  // Tries every operation on the values at larger and smaller. Operations with the same result
+  // leave the same values behind, so only the first is searched: this drops x / 1 after x * 1,
+  // x - 0 after x + 0, 2 * 2 after 2 + 2, and so on.
+  private boolean mergeAll(int depth, int larger, int smaller) {
+    long a = values[larger];
+    long b = values[smaller];
+
+    long sum = a + b;
+    if (merge(depth, larger, smaller, Operators.ADD, sum)) {
+      return true;
+    }
+    long difference = a - b;
+    if (difference != sum && merge(depth, larger, smaller, Operators.SUB, difference)) {
+      return true;
+    }
+    long product = a * b;
+    if (product != sum
+        && product != difference
+        && merge(depth, larger, smaller, Operators.MULT, product)) {
+      return true;
+    }
+
+    if (b == 0 || a % b != 0) {
+      return false;
+    }
+    long quotient = a / b;
+    return quotient != sum
+        && quotient != difference
+        && quotient != product
+        && merge(depth, larger, smaller, Operators.DIV, quotient);
+  }
+
+  // Replaces the values at i and j with their combination, recurses, then restores the stack.
+  private boolean merge(int depth, int i, int j, Operators operator, long value) {
+    int node = leafCount + depth;
+    lefts[node] = slots[i];
+    rights[node] = slots[j];
+    operators[node] = operator;
+
+    long savedHash = hash;
+    hash = StateHash.merge(hash, values[i], values[j], value);
+
+    int last = size - 1;
+    long savedValue = values[j];
+    int savedSlot = slots[j];
+    values[j] = values[last];
+    slots[j] = slots[last];
+
+    // If i was the last value, it has just been swapped into j.
+    int target = i == last ? j : i;
+    long savedTargetValue = values[target];
+    int savedTargetSlot = slots[target];
+    values[target] = value;
+    slots[target] = node;
+    size = last;
+
+    boolean found = search(depth + 1);
+
+    size = last + 1;
+    values[target] = savedTargetValue;
+    slots[target] = savedTargetSlot;
+    values[last] = values[j];
+    slots[last] = slots[j];
+    values[j] = savedValue;
+    slots[j] = savedSlot;
+    hash = savedHash;
+
+    return found;
+  }
+
+  // The endgame tries every merge of the last few values, as the search would, but with the values
+  // held in locals: no state is hashed or remembered, and no expression is built unless a target
+  // is reached. Each merge is still recorded in the node arrays, so that one can be. a, b and c are
+  // values and sa, sb and sc their expression nodes.
+
+  private boolean endgame4(int depth) {
+    for (int i = 0; i < 4; i++) {
+      for (int j = i + 1; j < 4; j++) {
+        // The two values left over, in order.
+        int k = i == 0 ? (j == 1 ? 2 : 1) : 0;
+        int l = 6 - i - j - k;
+        long a = values[i];
+        long b = values[j];
+        int sa = slots[i];
+        int sb = slots[j];
+        if (a < b) {
+          long t = a;
+          a = b;
+          b = t;
+          int st = sa;
+          sa = sb;
+          sb = st;
+        }
+        int node = leafCount + depth;
+        lefts[node] = sa;
+        rights[node] = sb;
+        long c = values[k];
+        int sc = slots[k];
+        long d = values[l];
+        int sd = slots[l];
+
+        operators[node] = Operators.ADD;
+        if (endgame3(depth + 1, a + b, node, c, sc, d, sd)) {
+          return true;
+        }
+        operators[node] = Operators.SUB;
+        if (endgame3(depth + 1, a - b, node, c, sc, d, sd)) {
+          return true;
+        }
+        operators[node] = Operators.MULT;
+        if (endgame3(depth + 1, a * b, node, c, sc, d, sd)) {
+          return true;
+        }
+        if (b != 0 && a % b == 0) {
+          operators[node] = Operators.DIV;
+          if (endgame3(depth + 1, a / b, node, c, sc, d, sd)) {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  // Merges a and b, a and c, then b and c, skipping a pair that is the same as an earlier one.
+  private boolean endgame3(int depth, long a, int sa, long b, int sb, long c, int sc) {
+    return endgame3Pair(depth, a, sa, b, sb, c, sc)
+        || (b != c && endgame3Pair(depth, a, sa, c, sc, b, sb))
+        || (a != b && a != c && endgame3Pair(depth, b, sb, c, sc, a, sa));
+  }
+
+  // Merges a and b, and finishes with c.
+  private boolean endgame3Pair(int depth, long a, int sa, long b, int sb, long c, int sc) {
+    if (a < b) {
+      long t = a;
+      a = b;
+      b = t;
+      int st = sa;
+      sa = sb;
+      sb = st;
+    }
+    int node = leafCount + depth;
+    lefts[node] = sa;
+    rights[node] = sb;
+
+    operators[node] = Operators.ADD;
+    if (endgame2(depth + 1, a + b, node, c, sc)) {
+      return true;
+    }
+    operators[node] = Operators.SUB;
+    if (endgame2(depth + 1, a - b, node, c, sc)) {
+      return true;
+    }
+    operators[node] = Operators.MULT;
+    if (endgame2(depth + 1, a * b, node, c, sc)) {
+      return true;
+    }
+    if (b == 0 || a % b != 0) {
+      return false;
+    }
+    operators[node] = Operators.DIV;
+    return endgame2(depth + 1, a / b, node, c, sc);
+  }
+
+  private boolean endgame2(int depth, long a, int sa, long b, int sb) {
+    if (a < b) {
+      long t = a;
+      a = b;
+      b = t;
+      int st = sa;
+      sa = sb;
+      sb = st;
+    }
+    int node = leafCount + depth;
+    long sum = a + b;
+    long difference = a - b;
+    long product = a * b;
+    boolean divides = b != 0 && a % b == 0;
+    long quotient = divides ? a / b : -1;
+    // Usually none of the four is a target, which the bitmask shows without recording anything.
+    if (!isTarget(sum) && !isTarget(difference) && !isTarget(product) && !isTarget(quotient)) {
+      return false;
+    }
+
+    lefts[node] = sa;
+    rights[node] = sb;
+    operators[node] = Operators.ADD;
+    if (reached(sum, node + 1, node)) {
+      return true;
+    }
+    operators[node] = Operators.SUB;
+    if (difference != sum && reached(difference, node + 1, node)) {
+      return true;
+    }
+    operators[node] = Operators.MULT;
+    if (product != sum && product != difference && reached(product, node + 1, node)) {
+      return true;
+    }
+    operators[node] = Operators.DIV;
+    return divides
+        && quotient != sum
+        && quotient != difference
+        && quotient != product
+        && reached(quotient, node + 1, node);
+  }
+
+  // Whether the expression made of the first nodeCount nodes, rooted at root, is a solution: it is
+  // if value is a target (and, when searching for levels, it was the last level left).
+  private boolean reached(long value, int nodeCount, int root) {
+    int target = targetIndex(value);
+    if (target < 0) {
+      return false;
+    }
+    result = buildExpression(nodeCount, root);
+    if (targetLevels == null) {
+      return true;
+    }
+    levelResults.put(targetLevels[target], result);
+    dropLevel(targetLevels[target]);
+    return targets.length == 0;
+  }
+
+  private boolean isTarget(long value) {
+    if (targetMask == null) {
+      return targetIndex(value) >= 0;
+    }
+    return value >= 0
+        && value < (long) targetMask.length << 6
+        && (targetMask[(int) (value >>> 6)] & (1L << value)) != 0;
+  }
+
+  private void setTargets(long[] targets) {
+    this.targets = targets;
+    long max = -1;
+    for (long target : targets) {
+      if (target < 0 || target >= MASK_LIMIT) {
+        targetMask = null;
+        return;
+      }
+      max = Math.max(max, target);
+    }
+    targetMask = new long[(int) (max >>> 6) + 1];
+    for (long target : targets) {
+      targetMask[(int) (target >>> 6)] |= 1L << target;
+    }
+  }
+
+  private boolean hasEarlierDuplicate(int index, int skip) {
+    for (int k = 0; k < index; k++) {
+      if (k != skip && values[k] == values[index]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private int targetIndex(long value) {
+    for (int i = 0; i < targets.length; i++) {
+      if (targets[i] == value) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private void dropLevel(Targets level) {
+    int kept = 0;
+    for (int i = 0; i < targets.length; i++) {
+      if (higherOnly ? targetLevels[i].compareTo(level) > 0 : targetLevels[i] != level) {
+        targets[kept] = targets[i];
+        targetLevels[kept] = targetLevels[i];
+        kept++;
+      }
+    }
+    setTargets(Arrays.copyOf(targets, kept));
+    targetLevels = Arrays.copyOf(targetLevels, kept);
+  }
+
+  // Every merge on the current path is part of the final expression, and each only refers to
+  // leaves and earlier merges, so the tree can be built in merge order.
+  private PostfixExpression buildExpression(int nodeCount, int root) {
+    PostfixExpression[] nodes = new PostfixExpression[nodeCount];
+    System.arraycopy(leafExpressions, 0, nodes, 0, leafCount);
+    for (int node = leafCount; node < nodes.length; node++) {
+      nodes[node] =
+          PostfixExpression.create(nodes[lefts[node]], nodes[rights[node]], operators[node]);
+    }
+    return nodes[root];
+  }
+}
@@ -0,0 +1,31 @@
+package sg.common;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("sg.Search")
+@Label("Search")
+@Category("Sacred Geometry")
+final class SearchEvent extends jdk.jfr.Event {
+  @Label("Dice")
+  int dice;
+
+  @Label("Levels")
+  String levels;
+
+  @Label("Parallel")
+  boolean parallel;
+
+  @Label("Nodes")
+  long nodes;
+
+  @Label("Memo Hits")
+  long memoHits;
+
+  @Label("Max Depth")
+  int maxDepth;
+
+  @Label("Stopped")
+  String stopped;
+}
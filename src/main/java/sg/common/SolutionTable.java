@@ -0,0 +1,89 @@
+package sg.common;
+
+import java.nio.ByteBuffer;
+
+// The patterns and failures of one sgN table, read in place from a TableFile buffer. Patterns are
+// ordered by size, so a containment scan can stop at the first pattern larger than the query;
+// failures are sorted for binary search. Expressions are only decoded when asked for.
+final class SolutionTable {
+  private final ByteBuffer buffer;
+  private final int patternCount;
+  private final int failureCount;
+  private final int patternKeys;
+  private final int failureKeys;
+  private final int expressionOffsets;
+  private final int patternSizes;
+  private final int blob;
+
+  SolutionTable(
+      ByteBuffer buffer,
+      int patternCount,
+      int failureCount,
+      int patternKeys,
+      int failureKeys,
+      int expressionOffsets,
+      int patternSizes,
+      int blob) {
+    this.buffer = buffer;
+    this.patternCount = patternCount;
+    this.failureCount = failureCount;
+    this.patternKeys = patternKeys;
+    this.failureKeys = failureKeys;
+    this.expressionOffsets = expressionOffsets;
+    this.patternSizes = patternSizes;
+    this.blob = blob;
+  }
+
+  boolean isFailure(long rollSet) {
+    int low = 0;
+    int high = failureCount - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long key = buffer.getLong(failureKeys + mid * Long.BYTES);
+      if (key < rollSet) {
+        low = mid + 1;
+      } else if (key > rollSet) {
+        high = mid - 1;
+      } else {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // The first pattern at or after index from that the roll set contains, or -1 if there is none.
+  int nextPatternIn(long rollSet, int rollCount, int from) {
+    for (int i = from; i < patternCount && patternSize(i) <= rollCount; i++) {
+      if (PackedRollSet.contains(rollSet, pattern(i))) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  long pattern(int index) {
+    return buffer.getLong(patternKeys + index * Long.BYTES);
+  }
+
+  int patternSize(int index) {
+    return buffer.get(patternSizes + index);
+  }
+
+  PostfixExpression expression(int index) {
+    byte[] bytes = new byte[patternSize(index)];
+    buffer.get(blob + buffer.getInt(expressionOffsets + index * Integer.BYTES), bytes);
+    return FileUtil.bytesToExpression(bytes);
+  }
+
+  long failure(int index) {
+    return buffer.getLong(failureKeys + index * Long.BYTES);
+  }
+
+  int patternCount() {
+    return patternCount;
+  }
+
+  int failureCount() {
+    return failureCount;
+  }
+}
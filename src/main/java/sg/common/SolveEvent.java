@@ -0,0 +1,32 @@
+package sg.common;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("sg.Solve")
+@Label("Solve")
+@Category("Sacred Geometry")
+final class SolveEvent extends jdk.jfr.Event {
+  @Label("Dice")
+  int dice;
+
+  // The level ordinal, or 0 for a search for the best level.
+  @Label("Level")
+  int level;
+
+  @Label("Status")
+  String status;
+
+  @Label("Resolution")
+  String resolution;
+
+  @Label("Nodes")
+  long nodes;
+
+  @Label("Memo Hits")
+  long memoHits;
+
+  @Label("Max Depth")
+  int maxDepth;
+}
@@ -0,0 +1,121 @@
+package sg.common;
+
+// The result of SacredGeometryCalculator.solve: the expression if one was found, whether the roll
+// set was otherwise proven to fail or the search was stopped short, and what the search cost.
+// Nothing is formatted until infix() or postfix() is called, so a caller that only wants the value
+// and level builds no strings.
+public final class SolveResult {
+  public enum Status {
+    // An expression reaching the target was found.
+    SOLVED,
+    // Every combination was tried (or the tables rule it out); the target can't be reached.
+    UNSOLVABLE,
+    // A pool too large to search had no core the planner could solve (see LargePoolPlanner). The
+    // target may or may not be reachable.
+    INCONCLUSIVE,
+    // The deadline or node budget ran out first (or an exact search overflowed). The target may or
+    // may not be reachable.
+    BUDGET_EXHAUSTED,
+    // The budget's token was cancelled, or the solving thread was interrupted.
+    CANCELLED
+  }
+
+  private final Status status;
+  private final PostfixExpression expression;
+  private final Targets level;
+  private final Resolution resolution;
+  private final long nodes;
+  private final long memoHits;
+  private final int maxDepth;
+  private final long elapsedNanos;
+
+  private String infix;
+
+  SolveResult(
+      Status status,
+      PostfixExpression expression,
+      Targets level,
+      Resolution resolution,
+      long nodes,
+      long memoHits,
+      int maxDepth,
+      long elapsedNanos) {
+    this.status = status;
+    this.expression = expression;
+    this.level = level;
+    this.resolution = resolution;
+    this.nodes = nodes;
+    this.memoHits = memoHits;
+    this.maxDepth = maxDepth;
+    this.elapsedNanos = elapsedNanos;
+  }
+
+  public Status status() {
+    return status;
+  }
+
+  // Null unless the status is SOLVED.
+  public PostfixExpression expression() {
+    return expression;
+  }
+
+  // The value the expression reaches, one of the level's target values.
+  public long value() {
+    if (expression == null) {
+      throw new IllegalStateException("A " + status + " result has no value.");
+    }
+    return expression.expressionResult();
+  }
+
+  // The expression as shown to users, e.g. "8 * (6 + 8) - 5", built on first use. Null unless
+  // solved.
+  public String infix() {
+    String s = infix;
+    if (s == null && expression != null) {
+      s = ExpressionUtil.toInfix(expression);
+      infix = s;
+    }
+    return s;
+  }
+
+  // The expression in postfix form, e.g. "868+*5-", or null unless solved.
+  public String postfix() {
+    return expression != null ? expression.expressionString() : null;
+  }
+
+  // The level the expression reaches, or null if there is no expression.
+  public Targets level() {
+    return level;
+  }
+
+  // How the request was answered, or null if it was stopped before anything answered it.
+  public Resolution resolution() {
+    return resolution;
+  }
+
+  // Search nodes expanded; 0 when the tables or cache answered.
+  public long nodes() {
+    return nodes;
+  }
+
+  // Search states skipped because an equivalent one had already been searched.
+  public long memoHits() {
+    return memoHits;
+  }
+
+  // The most merges on any one search path.
+  public int maxDepth() {
+    return maxDepth;
+  }
+
+  public long elapsedNanos() {
+    return elapsedNanos;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%s by %s: %d nodes, %d memo hits, depth %d, %.3fms",
+        status, resolution, nodes, memoHits, maxDepth, elapsedNanos / 1e6);
+  }
+}
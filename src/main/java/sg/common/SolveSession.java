@@ -0,0 +1,293 @@
+package sg.common;
+
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+// One user's latest roll and its answer, so that rerolling a die or adding one can be answered
+// from the previous expression rather than from scratch.
+//
+// After a change the store and tables are tried first, as usual. If they can't answer it, the
+// previous expression is repaired: each of its subtrees holding the changed die, smallest first, is
+// searched again with the new die in place of the old one, for the value it had before. Any
+// subtree that reaches it gives an expression for the new roll with the same value. Subtrees are
+// tried up to half the roll (and REPAIR_DICE dice), so a failed repair costs far less than the
+// search it falls back to, of the whole roll set. The sub-problems searched are remembered, so
+// flipping a die back and forth searches nothing twice.
+//
+// Best-level requests have no single value to keep, so changes to them are solved afresh.
+public final class SolveSession {
+  // Subtrees of more dice than this aren't searched again.
+  static final int REPAIR_DICE = Integer.getInteger("sg.session.repairDice", 10);
+  // Sub-problems (a sub-multiset and the value it has to reach) remembered per session.
+  static final int MEMO_SIZE = Integer.getInteger("sg.session.memoSize", 4096);
+
+  private final Map<SubProblem, Optional<PostfixExpression>> memo =
+      new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(
+            Map.Entry<SubProblem, Optional<PostfixExpression>> eldest) {
+          return size() > MEMO_SIZE;
+        }
+      };
+
+  private RollCounts rolls;
+  // Null for a best-level request.
+  private Targets target;
+  // The latest answer, or null if there was none.
+  private PostfixExpression expression;
+
+  public synchronized SolveResult solve(RollCounts rolls, Targets target, SearchBudget budget) {
+    return remember(rolls, target, SacredGeometryCalculator.solve(rolls, target, budget));
+  }
+
+  public synchronized SolveResult solveBest(RollCounts rolls, SearchBudget budget) {
+    return remember(rolls, null, SacredGeometryCalculator.solveBest(rolls, budget));
+  }
+
+  // The latest roll with one oldDie rolled again as newDie, solved for the same level.
+  public synchronized SolveResult reroll(int oldDie, int newDie, SearchBudget budget) {
+    checkFace(newDie);
+    if (rolls == null || oldDie < 1 || oldDie > PackedRollSet.FACES || rolls.count(oldDie) == 0) {
+      throw new IllegalArgumentException(
+          rolls == null
+              ? "There is no roll to change yet."
+              : "The roll " + rolls + " has no " + oldDie + " to reroll.");
+    }
+    int[] counts = rolls.toArray();
+    counts[oldDie - 1]--;
+    counts[newDie - 1]++;
+    return change(RollCounts.of(counts), oldDie, newDie, budget);
+  }
+
+  // The latest roll with die added, solved for the same level.
+  public synchronized SolveResult add(int die, SearchBudget budget) {
+    checkFace(die);
+    if (rolls == null) {
+      throw new IllegalArgumentException("There is no roll to add to yet.");
+    }
+    int[] counts = rolls.toArray();
+    counts[die - 1]++;
+    return change(RollCounts.of(counts), 0, die, budget);
+  }
+
+  // The latest roll, or null before the first request.
+  public synchronized RollCounts rolls() {
+    return rolls;
+  }
+
+  // The latest request's level, or null if it asked for the best level.
+  public synchronized Targets target() {
+    return target;
+  }
+
+  // removed is 0 when a die was only added.
+  private SolveResult change(RollCounts changed, int removed, int added, SearchBudget budget) {
+    if (target == null) {
+      return solveBest(changed, budget);
+    }
+
+    SolveEvent event = new SolveEvent();
+    event.begin();
+    long start = System.nanoTime();
+    SearchControl control = new SearchControl(budget);
+    PostfixExpression result;
+    Optional<PostfixExpression> known = SacredGeometryCalculator.known(changed, target, control);
+    if (known != null) {
+      result = known.orElse(null);
+    } else {
+      result = repair(changed, removed, added, control);
+      if (result != null) {
+        control.resolved(Resolution.REPAIR);
+      } else if (!control.isStopped()) {
+        result = SacredGeometryCalculator.calculateUnknown(changed, target, control);
+      }
+    }
+    Targets level = result != null ? target : null;
+    return remember(
+        changed,
+        target,
+        SacredGeometryCalculator.finish(
+            event, start, control, result, level, changed.size(), target.ordinal()));
+  }
+
+  private SolveResult remember(RollCounts rolls, Targets target, SolveResult result) {
+    this.rolls = rolls;
+    this.target = target;
+    this.expression = result.expression();
+    return result;
+  }
+
+  // The previous expression with one subtree replaced, or null if no subtree could be. Large pools
+  // are already planned in linear time, so there's nothing to save on them.
+  private PostfixExpression repair(
+      RollCounts changed, int removed, int added, SearchControl control) {
+    if (expression == null || changed.size() > LargePoolPlanner.THRESHOLD) {
+      return null;
+    }
+    Tree tree = Tree.of(expression);
+    if (tree == null) {
+      return null;
+    }
+
+    int maxDice = Math.min(REPAIR_DICE, changed.size() / 2);
+    List<Integer> candidates = new ArrayList<>();
+    for (int i = 0; i < tree.size(); i++) {
+      long dice = tree.dice[i];
+      if ((removed == 0 || PackedRollSet.count(dice, removed) > 0)
+          && PackedRollSet.size(dice) <= maxDice
+          && tree.nodes[i].expressionResult() >= 0
+          && tree.nodes[i].denominator() == 1) {
+        candidates.add(i);
+      }
+    }
+    candidates.sort(Comparator.comparingInt(i -> PackedRollSet.size(tree.dice[i])));
+
+    for (int i : candidates) {
+      long dice = tree.dice[i];
+      if (removed != 0) {
+        dice = PackedRollSet.minus(dice, PackedRollSet.single(removed));
+      }
+      dice += PackedRollSet.single(added);
+      PostfixExpression replacement = solve(dice, tree.nodes[i].expressionResult(), control);
+      if (replacement != null) {
+        return tree.replace(i, replacement);
+      }
+      if (control.isStopped()) {
+        return null;
+      }
+    }
+    return null;
+  }
+
+  // An expression of exactly the given dice reaching value, or null if there is none.
+  private PostfixExpression solve(long dice, long value, SearchControl control) {
+    SubProblem key = new SubProblem(dice, value);
+    Optional<PostfixExpression> known = memo.get(key);
+    if (known != null) {
+      return known.orElse(null);
+    }
+    PostfixExpression found =
+        new SearchEngine(PackedRollSet.toRollSet(dice), ImmutableSet.of(value), control).search();
+    if (found != null || !control.isStopped()) {
+      memo.put(key, Optional.ofNullable(found));
+    }
+    return found;
+  }
+
+  private static void checkFace(int die) {
+    if (die < 1 || die > PackedRollSet.FACES) {
+      throw new IllegalArgumentException(
+          die + " is not a valid roll (from 1 to " + PackedRollSet.FACES + ").");
+    }
+  }
+
+  // An expression flattened breadth-first, with each node's parent and the dice under it. Nodes
+  // are found by position rather than identity, since leaves (and possibly subtrees) are shared.
+  private static final class Tree {
+    private final PostfixExpression[] nodes;
+    private final int[] parents;
+    private final boolean[] isLeft;
+    private final long[] dice;
+
+    private Tree(int size) {
+      nodes = new PostfixExpression[size];
+      parents = new int[size];
+      isLeft = new boolean[size];
+      dice = new long[size];
+    }
+
+    // Null if a leaf isn't a single roll.
+    static Tree of(PostfixExpression root) {
+      Tree tree = new Tree(2 * countLeaves(root) - 1);
+      int size = 0;
+      tree.nodes[size] = root;
+      tree.parents[size] = -1;
+      size++;
+      // Children always come after their parent, so their dice can be summed in reverse order.
+      for (int i = 0; i < size; i++) {
+        PostfixExpression node = tree.nodes[i];
+        if (node.isLeaf()) {
+          long roll = node.expressionResult();
+          if (roll < 1 || roll > PackedRollSet.FACES) {
+            return null;
+          }
+          tree.dice[i] = PackedRollSet.single((int) roll);
+          continue;
+        }
+        tree.nodes[size] = node.left();
+        tree.parents[size] = i;
+        tree.isLeft[size] = true;
+        size++;
+        tree.nodes[size] = node.right();
+        tree.parents[size] = i;
+        size++;
+      }
+      for (int i = size - 1; i > 0; i--) {
+        tree.dice[tree.parents[i]] += tree.dice[i];
+      }
+      return tree;
+    }
+
+    int size() {
+      return nodes.length;
+    }
+
+    // The whole expression with node i replaced, rebuilding only the path above it. The tree may
+    // be an exact search's, so the path is rebuilt with createExact.
+    PostfixExpression replace(int i, PostfixExpression replacement) {
+      PostfixExpression result = replacement;
+      for (int child = i; parents[child] >= 0; child = parents[child]) {
+        PostfixExpression parent = nodes[parents[child]];
+        result =
+            isLeft[child]
+                ? PostfixExpression.createExact(result, parent.right(), parent.operator())
+                : PostfixExpression.createExact(parent.left(), result, parent.operator());
+      }
+      return result;
+    }
+
+    private static int countLeaves(PostfixExpression root) {
+      int leaves = 0;
+      List<PostfixExpression> pending = new ArrayList<>();
+      pending.add(root);
+      while (!pending.isEmpty()) {
+        PostfixExpression node = pending.remove(pending.size() - 1);
+        if (node.isLeaf()) {
+          leaves++;
+        } else {
+          pending.add(node.left());
+          pending.add(node.right());
+        }
+      }
+      return leaves;
+    }
+  }
+
+  private static final class SubProblem {
+    private final long dice;
+    private final long value;
+
+    SubProblem(long dice, long value) {
+      this.dice = dice;
+      this.value = value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof SubProblem
+          && ((SubProblem) o).dice == dice
+          && ((SubProblem) o).value == value;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(dice, value);
+    }
+  }
+}
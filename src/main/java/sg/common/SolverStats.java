@@ -0,0 +1,185 @@
+package sg.common;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Totals over every request answered through SacredGeometryCalculator.solve or calculateBest since
+// the process started. Registering them with JMX is left to long-running front ends, as starting
+// the platform MBean server costs a one-shot console run more than its whole solve.
+public final class SolverStats implements SolverStatsMXBean {
+  static final String OBJECT_NAME = "sg:type=SolverStats";
+
+  private static final SolverStats GLOBAL = new SolverStats();
+
+  private final LongAdder[] statuses = newAdders(SolveResult.Status.values().length);
+  // One more than there are resolutions, for requests stopped before anything answered them.
+  private final LongAdder[] resolutions = newAdders(Resolution.values().length + 1);
+  private final LongAdder nodes = new LongAdder();
+  private final LongAdder memoHits = new LongAdder();
+  private final AtomicInteger maxDepth = new AtomicInteger();
+  private final LongAdder totalNanos = new LongAdder();
+  private final AtomicLong maxNanos = new AtomicLong();
+  private volatile SolveResult last;
+
+  private SolverStats() {}
+
+  public static SolverStats global() {
+    return GLOBAL;
+  }
+
+  // Makes the totals visible to JConsole and other JMX clients. Safe to call more than once.
+  public static void registerMBean() {
+    try {
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(GLOBAL, name);
+      }
+    } catch (JMException e) {
+      System.err.println("Could not register the solver statistics: " + e.getMessage());
+    }
+  }
+
+  void record(SolveResult outcome) {
+    statuses[outcome.status().ordinal()].increment();
+    Resolution resolution = outcome.resolution();
+    resolutions[resolution != null ? resolution.ordinal() : Resolution.values().length].increment();
+    nodes.add(outcome.nodes());
+    memoHits.add(outcome.memoHits());
+    maxDepth.accumulateAndGet(outcome.maxDepth(), Math::max);
+    totalNanos.add(outcome.elapsedNanos());
+    maxNanos.accumulateAndGet(outcome.elapsedNanos(), Math::max);
+    last = outcome;
+  }
+
+  // The most recently recorded request, or null if there hasn't been one.
+  public SolveResult last() {
+    return last;
+  }
+
+  @Override
+  public long getRequests() {
+    long requests = 0;
+    for (LongAdder status : statuses) {
+      requests += status.sum();
+    }
+    return requests;
+  }
+
+  @Override
+  public long getSolved() {
+    return statuses[SolveResult.Status.SOLVED.ordinal()].sum();
+  }
+
+  @Override
+  public long getUnsolvable() {
+    return statuses[SolveResult.Status.UNSOLVABLE.ordinal()].sum();
+  }
+
+  @Override
+  public long getInconclusive() {
+    return statuses[SolveResult.Status.INCONCLUSIVE.ordinal()].sum();
+  }
+
+  @Override
+  public long getBudgetExhausted() {
+    return statuses[SolveResult.Status.BUDGET_EXHAUSTED.ordinal()].sum();
+  }
+
+  @Override
+  public long getCancelled() {
+    return statuses[SolveResult.Status.CANCELLED.ordinal()].sum();
+  }
+
+  @Override
+  public Map<String, Long> getResolutions() {
+    Map<String, Long> counts = new LinkedHashMap<>();
+    for (Resolution resolution : Resolution.values()) {
+      counts.put(resolution.name(), resolutions[resolution.ordinal()].sum());
+    }
+    counts.put("NONE", resolutions[Resolution.values().length].sum());
+    return counts;
+  }
+
+  @Override
+  public long getNodes() {
+    return nodes.sum();
+  }
+
+  @Override
+  public long getMemoHits() {
+    return memoHits.sum();
+  }
+
+  @Override
+  public int getMaxDepth() {
+    return maxDepth.get();
+  }
+
+  @Override
+  public double getMeanMillis() {
+    long requests = getRequests();
+    return requests == 0
+        ? 0
+        : totalNanos.sum() / (double) requests / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  @Override
+  public double getMaxMillis() {
+    return maxNanos.get() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  @Override
+  public long getCacheSize() {
+    return SacredGeometryCalculator.cacheSize();
+  }
+
+  @Override
+  public double getCacheHitRate() {
+    return SacredGeometryCalculator.cacheStats().hitRate();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder resolved = new StringBuilder();
+    for (Map.Entry<String, Long> entry : getResolutions().entrySet()) {
+      if (entry.getValue() > 0) {
+        resolved.append(resolved.length() == 0 ? "" : ", ");
+        resolved.append(entry.getKey().toLowerCase()).append(' ').append(entry.getValue());
+      }
+    }
+    return String.format(
+        "requests %d (solved %d, unsolvable %d, inconclusive %d, out of budget %d, cancelled %d),"
+            + " answered by [%s],"
+            + " nodes %d, memo hits %d, max depth %d, %.1fms mean / %.1fms max,"
+            + " cache %d entries / %.1f%% hits",
+        getRequests(),
+        getSolved(),
+        getUnsolvable(),
+        getInconclusive(),
+        getBudgetExhausted(),
+        getCancelled(),
+        resolved,
+        getNodes(),
+        getMemoHits(),
+        getMaxDepth(),
+        getMeanMillis(),
+        getMaxMillis(),
+        getCacheSize(),
+        100 * getCacheHitRate());
+  }
+
+  private static LongAdder[] newAdders(int count) {
+    LongAdder[] adders = new LongAdder[count];
+    for (int i = 0; i < count; i++) {
+      adders[i] = new LongAdder();
+    }
+    return adders;
+  }
+}
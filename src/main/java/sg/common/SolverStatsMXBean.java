@@ -0,0 +1,35 @@
+package sg.common;
+
+import java.util.Map;
+
+// The JMX view of SolverStats, registered as sg:type=SolverStats.
+public interface SolverStatsMXBean {
+  long getRequests();
+
+  long getSolved();
+
+  long getUnsolvable();
+
+  long getInconclusive();
+
+  long getBudgetExhausted();
+
+  long getCancelled();
+
+  // Requests by Resolution name.
+  Map<String, Long> getResolutions();
+
+  long getNodes();
+
+  long getMemoHits();
+
+  int getMaxDepth();
+
+  double getMeanMillis();
+
+  double getMaxMillis();
+
+  long getCacheSize();
+
+  double getCacheHitRate();
+}
@@ -0,0 +1,29 @@
+package sg.common;
+
+// Zobrist-style hashing of a multiset of values. Every value gets a pseudo-random 64-bit key, and
+// a state hashes to the sum of its values' keys. Summing (rather than xor-ing) keeps duplicate
+// values from cancelling out, and makes the hash depend only on the sorted, canonical form of the
+// state, so the search can update it in constant time as values are merged.
+final class StateHash {
+  private StateHash() {}
+
+  static long of(long[] values, int size) {
+    long hash = 0;
+    for (int i = 0; i < size; i++) {
+      hash += key(values[i]);
+    }
+    return hash;
+  }
+
+  static long merge(long hash, long removed1, long removed2, long added) {
+    return hash - key(removed1) - key(removed2) + key(added);
+  }
+
+  // SplitMix64 finalizer.
+  static long key(long value) {
+    long z = value + 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+}
@@ -0,0 +1,13 @@
+package sg.common;
+
+// A set of StateHash values the search has already explored.
+interface StateSet {
+  // Records the state, returning false if it was already present.
+  boolean add(long hash);
+
+  long hits();
+
+  long misses();
+
+  long evictions();
+}
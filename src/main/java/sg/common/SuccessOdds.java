@@ -0,0 +1,224 @@
+package sg.common;
+
+import com.google.common.collect.Multiset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+import java.util.stream.LongStream;
+
+// The exact chance that Sacred Geometry succeeds at each spell level for a pool of dice. Rather
+// than every ordered roll, each distinct roll set is visited once and weighted by the number of
+// ordered rolls that produce it (the multinomial coefficient), so 20d8 is 888,030 roll sets
+// instead of 8^20 rolls.
+//
+// Roll sets are spread over the common fork-join pool. A RankStore, if one is loaded, answers
+// them outright. Otherwise the tables decide almost all of them without building an expression;
+// the rest go through SacredGeometryCalculator.calculateLevels, whose result cache keeps what they
+// searched. Finished pools are kept too, so asking again is free. A budget covers the whole pool,
+// and a pool it stops short of finishing has no odds at all, since a partial count would be wrong.
+public final class SuccessOdds {
+  // 20! is the largest factorial that fits in a long, and 8^20 ordered rolls fit as well.
+  public static final int MAX_DICE = 20;
+
+  private static final long[] FACTORIALS = new long[MAX_DICE + 1];
+
+  static {
+    FACTORIALS[0] = 1;
+    for (int n = 1; n <= MAX_DICE; n++) {
+      FACTORIALS[n] = FACTORIALS[n - 1] * n;
+    }
+  }
+
+  private static final ConcurrentMap<Integer, SuccessOdds> POOLS = new ConcurrentHashMap<>();
+
+  private final int faces;
+  private final int dice;
+  private final long outcomes;
+  // Indexed by level ordinal; ZERO is never counted.
+  private final long[] successes;
+
+  private SuccessOdds(int faces, int dice, long[] successes) {
+    this.faces = faces;
+    this.dice = dice;
+    this.outcomes = pow(faces, dice);
+    this.successes = successes;
+  }
+
+  public static SuccessOdds of(int faces, int dice) {
+    return of(faces, dice, SearchBudget.unlimited());
+  }
+
+  // As above, or null if the budget runs out (or is cancelled) before every roll set is decided.
+  public static SuccessOdds of(int faces, int dice, SearchBudget budget) {
+    if (faces < 1 || faces > PackedRollSet.FACES) {
+      throw new IllegalArgumentException(
+          "The die size must be between 1 and " + PackedRollSet.FACES + " (inclusive).");
+    }
+    if (dice < 1 || dice > MAX_DICE) {
+      throw new IllegalArgumentException(
+          "The number of dice must be between 1 and " + MAX_DICE + " (inclusive).");
+    }
+    // Two threads asking for the same pool at once may both compute it; either answer is kept.
+    int key = faces * (MAX_DICE + 1) + dice;
+    SuccessOdds odds = POOLS.get(key);
+    if (odds == null) {
+      SearchControl control = new SearchControl(budget);
+      long[] successes = count(faces, dice, control);
+      if (control.isStopped()) {
+        return null;
+      }
+      odds = new SuccessOdds(faces, dice, successes);
+      POOLS.putIfAbsent(key, odds);
+    }
+    return odds;
+  }
+
+  public int faces() {
+    return faces;
+  }
+
+  public int dice() {
+    return dice;
+  }
+
+  // faces^dice, every ordered roll of the pool.
+  public long outcomes() {
+    return outcomes;
+  }
+
+  // How many of the ordered rolls reach the level.
+  public long successes(Targets level) {
+    return successes[level.ordinal()];
+  }
+
+  public double probability(Targets level) {
+    return (double) successes(level) / outcomes;
+  }
+
+  // Rounded to three decimals, except that only a certainty shows as 100% and only an impossibility
+  // as 0%.
+  public String percentage(Targets level) {
+    long count = successes(level);
+    if (count == 0 || count == outcomes) {
+      return count == 0 ? "0%" : "100%";
+    }
+    double percent = Math.min(Math.max(100.0 * count / outcomes, 0.001), 99.999);
+    return String.format("%.3f%%", percent);
+  }
+
+  // Writes the chance of success for 1 to maxDice dice of the given size, one row per pool and one
+  // column per spell level.
+  public static void printTable(int faces, int maxDice, Consumer<String> output) {
+    StringBuilder header = new StringBuilder(String.format("%5s", "d" + faces));
+    for (Targets level : Targets.values()) {
+      if (level != Targets.ZERO) {
+        header.append(String.format(" %8s", "Level " + level.ordinal()));
+      }
+    }
+    output.accept(header.append('\n').toString());
+
+    for (int dice = 1; dice <= maxDice; dice++) {
+      SuccessOdds odds = of(faces, dice);
+      StringBuilder row = new StringBuilder(String.format("%5d", dice));
+      for (Targets level : Targets.values()) {
+        if (level != Targets.ZERO) {
+          row.append(String.format(" %8s", odds.percentage(level)));
+        }
+      }
+      output.accept(row.append('\n').toString());
+    }
+  }
+
+  // Most roll sets never reach a search, so the budget is also checked before each one.
+  private static long[] count(int faces, int dice, SearchControl control) {
+    return LongStream.of(rollSets(faces, dice))
+        .parallel()
+        .collect(
+            () -> new long[Targets.values().length],
+            (successes, rollSet) -> {
+              if (control.record(0)) {
+                return;
+              }
+              int levels = reachableLevels(rollSet, dice, control);
+              long weight = weight(rollSet);
+              for (Targets level : Targets.values()) {
+                if ((levels & 1 << level.ordinal()) != 0) {
+                  successes[level.ordinal()] += weight;
+                }
+              }
+            },
+            (left, right) -> {
+              for (int i = 0; i < left.length; i++) {
+                left[i] += right[i];
+              }
+            });
+  }
+
+  // A bit per reachable spell level, by ordinal.
+  private static int reachableLevels(long rollSet, int dice, SearchControl control) {
+    RankStore store = SacredGeometryCalculator.store();
+    if (store != null && dice <= store.maxDice()) {
+      return store.levels(rollSet) & ~(1 << Targets.ZERO.ordinal());
+    }
+
+    int levels = 0;
+    for (Targets level : Targets.values()) {
+      if (level == Targets.ZERO) {
+        continue;
+      }
+      Boolean reached = SacredGeometryCalculator.resolves(rollSet, dice, level);
+      if (reached == null) {
+        return searchedLevels(PackedRollSet.toRollSet(rollSet), control);
+      }
+      if (reached) {
+        levels |= 1 << level.ordinal();
+      }
+    }
+    return levels;
+  }
+
+  private static int searchedLevels(Multiset<Integer> rollSet, SearchControl control) {
+    int levels = 0;
+    for (Map.Entry<Targets, PostfixExpression> entry :
+        SacredGeometryCalculator.calculateLevels(rollSet, control).entrySet()) {
+      levels |= 1 << entry.getKey().ordinal();
+    }
+    return levels;
+  }
+
+  // The number of orderings of the roll set: dice! / (count of 1s)! ... (count of 8s)!.
+  private static long weight(long rollSet) {
+    long weight = FACTORIALS[PackedRollSet.size(rollSet)];
+    for (int face = 1; face <= PackedRollSet.FACES; face++) {
+      weight /= FACTORIALS[PackedRollSet.count(rollSet, face)];
+    }
+    return weight;
+  }
+
+  private static long[] rollSets(int faces, int dice) {
+    LongStream.Builder builder = LongStream.builder();
+    rollSets(new int[faces], 0, dice, builder);
+    return builder.build().toArray();
+  }
+
+  private static void rollSets(int[] counts, int face, int remaining, LongStream.Builder builder) {
+    if (face == counts.length - 1) {
+      counts[face] = remaining;
+      builder.add(PackedRollSet.of(counts));
+      return;
+    }
+    for (int count = remaining; count >= 0; count--) {
+      counts[face] = count;
+      rollSets(counts, face + 1, remaining - count, builder);
+    }
+  }
+
+  private static long pow(int base, int exponent) {
+    long result = 1;
+    for (int i = 0; i < exponent; i++) {
+      result *= base;
+    }
+    return result;
+  }
+}
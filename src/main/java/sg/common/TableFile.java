@@ -0,0 +1,204 @@
+package sg.common;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Multiset;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+// Every sgN / sgNf table in one file, read in place by SolutionTable.
+//
+// Header: magic "SGTB", version, table count, then one directory entry per Targets value (in
+// declaration order) of six ints: pattern count, failure count, and the offsets of the pattern
+// keys, failure keys, expression offsets, and pattern sizes. Each table's sections follow:
+//   pattern keys       long[patterns]  PackedRollSet, ordered by size then key
+//   failure keys       long[failures]  PackedRollSet, ascending
+//   expression offsets int[patterns]   into the expression blob at the end of the file
+//   pattern sizes      byte[patterns]
+// The expression blob holds every pattern's expression in FileUtil's nibble encoding, and is
+// followed by its length.
+final class TableFile {
+  static final String FILE_NAME = "sg.tables";
+  static final String PATH_PROPERTY = "sg.tables";
+  static final int VERSION = 1;
+
+  private static final int MAGIC = 0x53475442;
+  private static final int HEADER_BYTES = 12;
+  private static final int DIRECTORY_ENTRY_BYTES = 24;
+
+  private TableFile() {}
+
+  // Maps the file named by -Dsg.tables if set, otherwise the copy on the classpath.
+  static Map<Targets, SolutionTable> load() throws IOException {
+    String path = System.getProperty(PATH_PROPERTY);
+    if (path != null) {
+      return read(map(Paths.get(path)));
+    }
+
+    URL url = TableFile.class.getResource("/" + FILE_NAME);
+    if (url == null) {
+      throw new FileNotFoundException(FILE_NAME + " is not on the classpath.");
+    }
+    if ("file".equals(url.getProtocol())) {
+      try {
+        return read(map(Paths.get(url.toURI())));
+      } catch (URISyntaxException e) {
+        throw new IOException(e);
+      }
+    }
+
+    // Inside a jar the entry can't be mapped, so it's read into a single buffer instead.
+    try (InputStream in = url.openStream()) {
+      return read(ByteBuffer.wrap(in.readAllBytes()));
+    }
+  }
+
+  static ByteBuffer map(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+  }
+
+  static Map<Targets, SolutionTable> read(ByteBuffer buffer) {
+    if (buffer.getInt(0) != MAGIC) {
+      throw new IllegalStateException("Not a Sacred Geometry table file.");
+    }
+    if (buffer.getInt(4) != VERSION) {
+      throw new IllegalStateException(
+          "Unsupported table file version " + buffer.getInt(4) + " (expected " + VERSION + ").");
+    }
+    if (buffer.getInt(8) != Targets.values().length) {
+      throw new IllegalStateException(
+          "Table file has " + buffer.getInt(8) + " tables (expected " + Targets.values().length
+              + ").");
+    }
+
+    int blob = buffer.limit() - blobLength(buffer);
+    ImmutableMap.Builder<Targets, SolutionTable> tables = ImmutableMap.builder();
+    for (Targets t : Targets.values()) {
+      int entry = HEADER_BYTES + t.ordinal() * DIRECTORY_ENTRY_BYTES;
+      tables.put(
+          t,
+          new SolutionTable(
+              buffer,
+              buffer.getInt(entry),
+              buffer.getInt(entry + 4),
+              buffer.getInt(entry + 8),
+              buffer.getInt(entry + 12),
+              buffer.getInt(entry + 16),
+              buffer.getInt(entry + 20),
+              blob));
+    }
+    return tables.build();
+  }
+
+  private static int blobLength(ByteBuffer buffer) {
+    return buffer.getInt(buffer.limit() - 4) + 4;
+  }
+
+  static void write(
+      Path path,
+      Map<Targets, Map<Multiset<Integer>, PostfixExpression>> solutions,
+      Map<Targets, Set<Multiset<Integer>>> failures)
+      throws IOException {
+    try (OutputStream out = Files.newOutputStream(path)) {
+      out.write(toBytes(solutions, failures));
+    }
+  }
+
+  static byte[] toBytes(
+      Map<Targets, Map<Multiset<Integer>, PostfixExpression>> solutions,
+      Map<Targets, Set<Multiset<Integer>>> failures)
+      throws IOException {
+    ByteArrayOutputStream sections = new ByteArrayOutputStream();
+    ByteArrayOutputStream blob = new ByteArrayOutputStream();
+    int[][] directory = new int[Targets.values().length][];
+    int start = align(HEADER_BYTES + directory.length * DIRECTORY_ENTRY_BYTES);
+
+    for (Targets t : Targets.values()) {
+      List<Map.Entry<Multiset<Integer>, PostfixExpression>> patterns =
+          solutions.getOrDefault(t, Map.of()).entrySet().stream()
+              .sorted(
+                  Comparator.comparingInt(
+                          (Map.Entry<Multiset<Integer>, PostfixExpression> e) -> e.getKey().size())
+                      .thenComparingLong(e -> PackedRollSet.of(e.getKey())))
+              .collect(Collectors.toList());
+      long[] failureKeys =
+          failures.getOrDefault(t, Set.of()).stream()
+              .mapToLong(PackedRollSet::of)
+              .sorted()
+              .toArray();
+
+      DataOutputStream out = new DataOutputStream(sections);
+      int patternKeys = start + sections.size();
+      for (Map.Entry<Multiset<Integer>, PostfixExpression> pattern : patterns) {
+        out.writeLong(PackedRollSet.of(pattern.getKey()));
+      }
+      int failureKeysOffset = start + sections.size();
+      for (long failure : failureKeys) {
+        out.writeLong(failure);
+      }
+      int expressionOffsets = start + sections.size();
+      for (Map.Entry<Multiset<Integer>, PostfixExpression> pattern : patterns) {
+        out.writeInt(blob.size());
+        blob.write(FileUtil.expressionToBytes(pattern.getValue()));
+      }
+      int patternSizes = start + sections.size();
+      for (Map.Entry<Multiset<Integer>, PostfixExpression> pattern : patterns) {
+        out.writeByte(pattern.getKey().size());
+      }
+      // Keep the next table's longs aligned.
+      while (sections.size() != align(sections.size())) {
+        out.writeByte(0);
+      }
+
+      directory[t.ordinal()] =
+          new int[] {
+            patterns.size(),
+            failureKeys.length,
+            patternKeys,
+            failureKeysOffset,
+            expressionOffsets,
+            patternSizes
+          };
+    }
+
+    ByteArrayOutputStream file = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(file);
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(directory.length);
+    for (int[] entry : directory) {
+      for (int value : entry) {
+        out.writeInt(value);
+      }
+    }
+    while (file.size() < start) {
+      out.writeByte(0);
+    }
+    sections.writeTo(out);
+    blob.writeTo(out);
+    out.writeInt(blob.size());
+    return file.toByteArray();
+  }
+
+  private static int align(int offset) {
+    return (offset + Long.BYTES - 1) & -Long.BYTES;
+  }
+}
@@ -0,0 +1,294 @@
+package sg.common;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multiset;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.LongStream;
+
+// Rebuilds the sgN / sgNf tables. Roll sets are visited in increasing size, so by the time a roll
+// set is considered every smaller one has been classified. A roll set containing a known pattern
+// for the level is skipped; the rest are searched, and become a new (minimal) pattern or a new
+// failure.
+public final class TableGenerator {
+  private static final long PROGRESS_INTERVAL_SECONDS = 10;
+
+  private final int faces;
+  private final int maxDice;
+  private final String directory;
+  private final ForkJoinPool pool;
+  private final Consumer<String> output;
+
+  private final Map<Targets, List<Pattern>> patterns = new EnumMap<>(Targets.class);
+  private final Map<Targets, Set<Long>> failures = new EnumMap<>(Targets.class);
+
+  private final AtomicLong processed = new AtomicLong();
+  private long unstorable;
+
+  public TableGenerator(
+      int faces, int maxDice, String directory, int threads, Consumer<String> output) {
+    if (faces < 1 || faces > PackedRollSet.FACES) {
+      throw new IllegalArgumentException(
+          "The die size must be between 1 and " + PackedRollSet.FACES + " (inclusive).");
+    }
+    if (maxDice < 1 || maxDice > PackedRollSet.MAX_COUNT) {
+      throw new IllegalArgumentException(
+          "The maximum number of dice must be between 1 and "
+              + PackedRollSet.MAX_COUNT
+              + " (inclusive).");
+    }
+    this.faces = faces;
+    this.maxDice = maxDice;
+    this.directory = directory;
+    this.pool = new ForkJoinPool(threads);
+    this.output = output;
+
+    for (Targets target : Targets.values()) {
+      patterns.put(target, new ArrayList<>());
+      failures.put(target, new LinkedHashSet<>());
+    }
+  }
+
+  public static String defaultDirectory() {
+    return FileUtil.RESOURCE_PATH;
+  }
+
+  public void generate() throws IOException, InterruptedException {
+    long start = System.nanoTime();
+    ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+
+    try {
+      for (int size = 1; size <= maxDice; size++) {
+        generateSize(size, reporter);
+      }
+    } finally {
+      reporter.shutdownNow();
+      pool.shutdown();
+    }
+
+    output.accept(
+        String.format(
+            "Generated tables for up to %d d%d in %.1fs.\n",
+            maxDice, faces, (System.nanoTime() - start) / 1e9));
+    if (unstorable > 0) {
+      output.accept(
+          unstorable
+              + " entries had more than 15 of a single roll and could not be written.\n");
+    }
+    write();
+  }
+
+  private void generateSize(int size, ScheduledExecutorService reporter)
+      throws InterruptedException {
+    long[] rollSets = enumerate(size);
+    ConcurrentLinkedQueue<Outcome> outcomes = new ConcurrentLinkedQueue<>();
+    long levelStart = System.nanoTime();
+    processed.set(0);
+
+    ScheduledFuture<?> progress =
+        reporter.scheduleAtFixedRate(
+            () ->
+                output.accept(
+                    String.format(
+                        "  %d dice: %d / %d roll sets\n", size, processed.get(), rollSets.length)),
+            PROGRESS_INTERVAL_SECONDS,
+            PROGRESS_INTERVAL_SECONDS,
+            TimeUnit.SECONDS);
+
+    try {
+      pool.submit(
+              () ->
+                  LongStream.of(rollSets)
+                      .parallel()
+                      .forEach(
+                          rollSet -> {
+                            classify(rollSet, outcomes);
+                            processed.incrementAndGet();
+                          }))
+          .get();
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      progress.cancel(false);
+    }
+
+    // Nothing found at this size can resolve another roll set of the same size, so the tables are
+    // only extended once the whole size is done.
+    List<Outcome> sorted = new ArrayList<>(outcomes);
+    sorted.sort(
+        Comparator.comparing((Outcome o) -> o.target).thenComparingLong(o -> o.rollSet));
+
+    int newPatterns = 0;
+    int newFailures = 0;
+    for (Outcome outcome : sorted) {
+      if (!PackedRollSet.fitsInNibbles(outcome.rollSet)) {
+        unstorable++;
+        continue;
+      }
+      if (outcome.expression == null) {
+        failures.get(outcome.target).add(outcome.rollSet);
+        newFailures++;
+      } else {
+        patterns
+            .get(outcome.target)
+            .add(new Pattern(outcome.rollSet, outcome.expression));
+        newPatterns++;
+      }
+    }
+
+    double seconds = (System.nanoTime() - levelStart) / 1e9;
+    output.accept(
+        String.format(
+            "%d dice: %d roll sets, %d searched, %d new patterns, %d new failures, %.1fs"
+                + " (%.0f roll sets/s)\n",
+            size,
+            rollSets.length,
+            sorted.size(),
+            newPatterns,
+            newFailures,
+            seconds,
+            rollSets.length / Math.max(seconds, 1e-9)));
+  }
+
+  private void classify(long rollSet, ConcurrentLinkedQueue<Outcome> outcomes) {
+    Multiset<Integer> rolls = null;
+    for (Targets target : Targets.values()) {
+      if (resolvable(target, rollSet)) {
+        continue;
+      }
+      if (rolls == null) {
+        rolls = PackedRollSet.toRollSet(rollSet);
+      }
+      outcomes.add(
+          new Outcome(
+              target, rollSet, SacredGeometryCalculator.calculateWithoutLookup(rolls, target)));
+    }
+  }
+
+  // Any roll set containing a pattern is left to calculate, which combines that pattern with the
+  // zero table or falls back to searching.
+  private boolean resolvable(Targets target, long rollSet) {
+    for (Pattern pattern : patterns.get(target)) {
+      if (PackedRollSet.contains(rollSet, pattern.rollSet)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private long[] enumerate(int size) {
+    LongStream.Builder builder = LongStream.builder();
+    enumerate(new int[faces], 0, size, builder);
+    return builder.build().toArray();
+  }
+
+  private static void enumerate(int[] counts, int face, int remaining, LongStream.Builder builder) {
+    if (face == counts.length - 1) {
+      counts[face] = remaining;
+      builder.add(PackedRollSet.of(counts));
+      return;
+    }
+    for (int count = remaining; count >= 0; count--) {
+      counts[face] = count;
+      enumerate(counts, face + 1, remaining - count, builder);
+    }
+  }
+
+  private void write() throws IOException {
+    Map<Targets, Map<Multiset<Integer>, PostfixExpression>> allSolutions =
+        new EnumMap<>(Targets.class);
+    Map<Targets, Set<Multiset<Integer>>> allFailures = new EnumMap<>(Targets.class);
+
+    for (Targets target : Targets.values()) {
+      Map<Multiset<Integer>, PostfixExpression> solutions = new LinkedHashMap<>();
+      for (Pattern pattern : patterns.get(target)) {
+        solutions.put(PackedRollSet.toRollSet(pattern.rollSet), pattern.expression);
+      }
+      FileUtil.writeSolutionFile(directory, target.fileName(), solutions);
+      allSolutions.put(target, solutions);
+
+      ImmutableSet.Builder<Multiset<Integer>> failureSet = ImmutableSet.builder();
+      for (long rollSet : failures.get(target)) {
+        failureSet.add(PackedRollSet.toRollSet(rollSet));
+      }
+      FileUtil.writeFailureFile(directory, target.fileName(), failureSet.build());
+      allFailures.put(target, failureSet.build());
+
+      output.accept(
+          String.format(
+              "Wrote %s%s (%d patterns) and %s%s%s (%d failures).\n",
+              directory,
+              target.fileName(),
+              solutions.size(),
+              directory,
+              target.fileName(),
+              FileUtil.FAILED,
+              failures.get(target).size()));
+    }
+
+    TableFile.write(Paths.get(directory + TableFile.FILE_NAME), allSolutions, allFailures);
+    output.accept("Wrote " + directory + TableFile.FILE_NAME + ".\n");
+  }
+
+  // Writes the RankStore for every roll set of up to maxDice dice, which the calculator uses when
+  // -Dsg.store names it.
+  public static void generateStore(
+      String directory, int maxDice, int threads, Consumer<String> output)
+      throws IOException, InterruptedException {
+    RankStore.generate(Paths.get(directory + RankStore.FILE_NAME), maxDice, threads, output);
+  }
+
+  // Packs existing sgN / sgNf files into the single table file read at runtime.
+  public static void convert(String directory, Consumer<String> output) throws IOException {
+    Map<Targets, Map<Multiset<Integer>, PostfixExpression>> solutions =
+        new EnumMap<>(Targets.class);
+    Map<Targets, Set<Multiset<Integer>>> failures = new EnumMap<>(Targets.class);
+    for (Targets target : Targets.values()) {
+      solutions.put(target, FileUtil.readSolutionFile(directory, target.fileName()));
+      failures.put(target, FileUtil.readFailureFile(directory, target.fileName()));
+    }
+
+    TableFile.write(Paths.get(directory + TableFile.FILE_NAME), solutions, failures);
+    output.accept("Wrote " + directory + TableFile.FILE_NAME + ".\n");
+  }
+
+  private static final class Pattern {
+    private final long rollSet;
+    private final PostfixExpression expression;
+
+    Pattern(long rollSet, PostfixExpression expression) {
+      this.rollSet = rollSet;
+      this.expression = expression;
+    }
+  }
+
+  private static final class Outcome {
+    private final Targets target;
+    private final long rollSet;
+    // Null if the roll set fails.
+    private final PostfixExpression expression;
+
+    Outcome(Targets target, long rollSet, PostfixExpression expression) {
+      this.target = target;
+      this.rollSet = rollSet;
+      this.expression = expression;
+    }
+  }
+}
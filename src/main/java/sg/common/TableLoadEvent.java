@@ -0,0 +1,18 @@
+package sg.common;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("sg.TableLoad")
+@Label("Table Load")
+@Category("Sacred Geometry")
+@Description("Loading the lookup tables, the rank store and the persistent result cache")
+final class TableLoadEvent extends jdk.jfr.Event {
+  @Label("Store Loaded")
+  boolean store;
+
+  @Label("Cached Results")
+  long cachedResults;
+}
@@ -0,0 +1,132 @@
+package sg.common;
+
+// Single-threaded open-addressing StateSet. The table doubles until it reaches maxCapacity; after
+// that, a state whose probe window is full evicts the entry in its home slot. Evicting is always
+// safe - the evicted state may just be explored a second time.
+//
+// Only each state's 64-bit StateHash is kept, so two states whose hashes collide count as one, and
+// the second is skipped without being explored. A failure found through this set - by
+// SearchEngine, and so by the tables, store and result cache that record its failures - is
+// therefore overwhelmingly likely rather than proven. ExactSearchEngine keeps whole states.
+final class VisitedStates implements StateSet {
+  static final int DEFAULT_MAX_CAPACITY =
+      Integer.getInteger("sg.visitedStates.maxCapacity", 1 << 22);
+
+  private static final int INITIAL_CAPACITY = 1 << 10;
+  private static final int MAX_PROBES = 16;
+  private static final long EMPTY = 0;
+
+  private final int maxCapacity;
+  private long[] table;
+  private int size;
+
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  VisitedStates() {
+    this(DEFAULT_MAX_CAPACITY);
+  }
+
+  VisitedStates(int maxCapacity) {
+    if (maxCapacity < 1 || Integer.bitCount(maxCapacity) != 1) {
+      throw new IllegalArgumentException(
+          "The visited state capacity must be a power of two (was " + maxCapacity + ").");
+    }
+    this.maxCapacity = maxCapacity;
+    this.table = new long[Math.min(INITIAL_CAPACITY, maxCapacity)];
+  }
+
+  @Override
+  public boolean add(long hash) {
+    if (hash == EMPTY) {
+      hash = 1;
+    }
+
+    int mask = table.length - 1;
+    int home = (int) hash & mask;
+    for (int probe = 0, index = home; probe < MAX_PROBES; probe++, index = (index + 1) & mask) {
+      long current = table[index];
+      if (current == hash) {
+        hits++;
+        return false;
+      }
+      if (current == EMPTY) {
+        table[index] = hash;
+        size++;
+        misses++;
+        if (size > table.length / 2 && table.length < maxCapacity) {
+          resize(table.length * 2);
+        }
+        return true;
+      }
+    }
+
+    misses++;
+    if (table.length < maxCapacity) {
+      resize(table.length * 2);
+      if (insert(hash)) {
+        size++;
+      }
+    } else {
+      table[home] = hash;
+      evictions++;
+    }
+    return true;
+  }
+
+  private void resize(int capacity) {
+    long[] old = table;
+    table = new long[capacity];
+    size = 0;
+    for (long hash : old) {
+      if (hash != EMPTY && insert(hash)) {
+        size++;
+      }
+    }
+  }
+
+  // Places a hash known to be absent, dropping it if its probe window is full.
+  private boolean insert(long hash) {
+    int mask = table.length - 1;
+    for (int probe = 0, index = (int) hash & mask; probe < MAX_PROBES;
+        probe++, index = (index + 1) & mask) {
+      if (table[index] == EMPTY) {
+        table[index] = hash;
+        return true;
+      }
+    }
+    evictions++;
+    return false;
+  }
+
+  int size() {
+    return size;
+  }
+
+  int capacity() {
+    return table.length;
+  }
+
+  @Override
+  public long hits() {
+    return hits;
+  }
+
+  @Override
+  public long misses() {
+    return misses;
+  }
+
+  @Override
+  public long evictions() {
+    return evictions;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "VisitedStates{size=%d, capacity=%d, hits=%d, misses=%d, evictions=%d}",
+        size, table.length, hits, misses, evictions);
+  }
+}
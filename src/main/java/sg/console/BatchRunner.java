@@ -0,0 +1,78 @@
+package sg.console;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Solves request lines on a pool and writes each answer in input order, as soon as it and every
+// answer before it are done. At most window lines are in flight, so one slow line holds up the
+// output behind it but the backlog never grows without bound. Answers are flushed as they're
+// written, so a client can read each one before sending the next request.
+final class BatchRunner {
+  static final int WINDOW =
+      Integer.getInteger("sg.batch.window", 4 * Runtime.getRuntime().availableProcessors());
+
+  private static final Future<String> END = CompletableFuture.completedFuture(null);
+
+  private BatchRunner() {}
+
+  static void run(BufferedReader in, Writer out, ExecutorService pool)
+      throws IOException, InterruptedException {
+    BlockingQueue<Future<String>> pending = new ArrayBlockingQueue<>(WINDOW);
+    AtomicReference<IOException> writeFailure = new AtomicReference<>();
+    Thread writer = new Thread(() -> writeInOrder(pending, out, writeFailure), "sg-batch-writer");
+    writer.start();
+
+    try {
+      String line;
+      while (writeFailure.get() == null && (line = in.readLine()) != null) {
+        String request = line.trim();
+        if (!request.isEmpty()) {
+          pending.put(pool.submit(() -> LineSolver.answer(request)));
+        }
+      }
+    } finally {
+      pending.put(END);
+      writer.join();
+    }
+    if (writeFailure.get() != null) {
+      throw writeFailure.get();
+    }
+  }
+
+  // After a failed write (e.g. the client went away) the rest are still taken, so the reader is
+  // never left blocked on a full queue.
+  private static void writeInOrder(
+      BlockingQueue<Future<String>> pending,
+      Writer out,
+      AtomicReference<IOException> writeFailure) {
+    try {
+      for (Future<String> answer = pending.take(); answer != END; answer = pending.take()) {
+        String line;
+        try {
+          line = answer.get();
+        } catch (ExecutionException e) {
+          line = "error: " + e.getCause();
+        }
+        if (writeFailure.get() == null) {
+          try {
+            out.write(line);
+            out.write('\n');
+            out.flush();
+          } catch (IOException e) {
+            writeFailure.set(e);
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
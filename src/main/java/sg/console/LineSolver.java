@@ -0,0 +1,64 @@
+package sg.console;
+
+import com.google.common.base.Splitter;
+import java.time.Duration;
+import java.util.List;
+import sg.common.RollCounts;
+import sg.common.SacredGeometry;
+import sg.common.SacredGeometryCalculator;
+import sg.common.SearchBudget;
+import sg.common.SolveResult;
+
+// Answers one "rolls level" line of a batch or daemon request with one line: the request, the
+// rolls (which differ from it for a dice expression), and the result, separated by tabs.
+//   3345688 9   3345688   8 * (6 + 8) - 5 + (3 - 3) * 4 = 107
+//   8d6 best    12345566  level 9: ... = 103
+// A result is an expression, "no result", "inconclusive" (a large pool with no result found, but
+// none ruled out), "stopped (STATUS)" or "error: message".
+final class LineSolver {
+  static final long TIMEOUT_MILLIS = Long.getLong("sg.batch.timeoutMillis", 0);
+
+  private static final Splitter WORDS = Splitter.on(' ').omitEmptyStrings().trimResults();
+
+  private LineSolver() {}
+
+  static String answer(String line) {
+    StringBuilder answer = new StringBuilder(line).append('\t');
+    try {
+      List<String> words = WORDS.splitToList(line);
+      if (words.size() != 2) {
+        throw new IllegalArgumentException(
+            "A request is a roll string or dice expression and a level.");
+      }
+      RollCounts rolls = SacredGeometry.parseRolls(words.get(0));
+      answer.append(rolls.rolls()).append('\t');
+
+      boolean best = words.get(1).equalsIgnoreCase("best");
+      SolveResult result =
+          best
+              ? SacredGeometryCalculator.solveBest(rolls, budget())
+              : SacredGeometryCalculator.solve(
+                  rolls, SacredGeometry.parseLevel(words.get(1)), budget());
+      switch (result.status()) {
+        case SOLVED -> {
+          if (best) {
+            answer.append("level ").append(result.level().ordinal()).append(": ");
+          }
+          answer.append(result.infix()).append(" = ").append(result.value());
+        }
+        case UNSOLVABLE -> answer.append("no result");
+        case INCONCLUSIVE -> answer.append("inconclusive");
+        default -> answer.append("stopped (").append(result.status()).append(')');
+      }
+    } catch (IllegalArgumentException e) {
+      answer.append("error: ").append(e.getMessage());
+    }
+    return answer.toString();
+  }
+
+  private static SearchBudget budget() {
+    return TIMEOUT_MILLIS > 0
+        ? SearchBudget.unlimited().withTimeout(Duration.ofMillis(TIMEOUT_MILLIS))
+        : SearchBudget.unlimited();
+  }
+}
@@ -1,15 +1,88 @@
 package sg.console;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import sg.common.SacredGeometry;
-
-import com.google.common.collect.ImmutableList;
+import sg.common.SolveResult;
+import sg.common.SolverStats;
 
 public class SacredGeometryConsole {
-  public static void main(String[] args) {
+  // Prints how the request was answered and what it cost after the result.
+  private static final String STATS = "--stats";
+  // --batch[=file]: one "rolls level" request per line of the file or standard input.
+  private static final String BATCH = "--batch";
+  // --daemon[=socket]: serves batches on a Unix domain socket until stopped.
+  private static final String DAEMON = "--daemon";
+  // --client[=socket] [rolls level]: sends one request, or standard input, to a daemon.
+  private static final String CLIENT = "--client";
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    List<String> arguments = new ArrayList<>(Arrays.asList(args));
+    String mode = arguments.isEmpty() ? "" : arguments.get(0);
+    if (isFlag(mode, CLIENT)) {
+      SolverDaemon.client(
+          Paths.get(flagValue(mode, SolverDaemon.DEFAULT_SOCKET)),
+          arguments.subList(1, arguments.size()),
+          System.out);
+      return;
+    }
+    if (isFlag(mode, DAEMON)) {
+      SolverDaemon.serve(Paths.get(flagValue(mode, SolverDaemon.DEFAULT_SOCKET)), newPool());
+      return;
+    }
+    if (isFlag(mode, BATCH)) {
+      String file = flagValue(mode, null);
+      ExecutorService pool = newPool();
+      try (BufferedReader in =
+              file != null
+                  ? Files.newBufferedReader(Paths.get(file))
+                  : new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+          Writer out = new OutputStreamWriter(System.out, StandardCharsets.UTF_8)) {
+        BatchRunner.run(in, out, pool);
+      } finally {
+        pool.shutdown();
+      }
+      return;
+    }
+
+    boolean stats = arguments.remove(STATS);
     try {
-      SacredGeometry.sacredGeometry(ImmutableList.copyOf(args), System.out::print);
+      SacredGeometry.sacredGeometry(arguments, System.out::print);
     } catch (IllegalArgumentException e) {
       System.out.print(e.getMessage());
     }
+
+    if (stats) {
+      SolveResult last = SolverStats.global().last();
+      System.out.print("\nRequest: " + (last != null ? last : "none"));
+      System.out.print("\nTotals: " + SolverStats.global() + "\n");
+    }
+  }
+
+  private static boolean isFlag(String arg, String flag) {
+    return arg.equals(flag) || arg.startsWith(flag + "=");
+  }
+
+  private static String flagValue(String arg, String defaultValue) {
+    int equals = arg.indexOf('=');
+    return equals >= 0 ? arg.substring(equals + 1) : defaultValue;
+  }
+
+  private static ExecutorService newPool() {
+    return Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors(),
+        new ThreadFactoryBuilder().setNameFormat("sg-batch-%d").setDaemon(true).build());
   }
 }
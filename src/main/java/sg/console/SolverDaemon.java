@@ -0,0 +1,143 @@
+package sg.console;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// A long-lived solver on a Unix domain socket, so scripts pay for the JVM and the tables once. Each
+// connection is a batch: request lines in, answer lines out (see LineSolver), in order. The client
+// is the same protocol over the socket, so nc -U or socat work as well.
+//
+// The socket goes in $XDG_RUNTIME_DIR, which only its user can write to, or failing that under a
+// per-user name in the temp directory. Anything already at the path is only removed if it is a
+// socket the same user owns, as a daemon that wasn't shut down cleanly leaves behind.
+final class SolverDaemon {
+  static final String DEFAULT_SOCKET = System.getProperty("sg.daemon.socket", defaultSocket());
+
+  private SolverDaemon() {}
+
+  private static String defaultSocket() {
+    String runtimeDirectory = System.getenv("XDG_RUNTIME_DIR");
+    if (runtimeDirectory != null && !runtimeDirectory.isEmpty()) {
+      return runtimeDirectory + "/sg.sock";
+    }
+    return System.getProperty("java.io.tmpdir")
+        + "/sg-"
+        + System.getProperty("user.name")
+        + ".sock";
+  }
+
+  static void serve(Path socket, ExecutorService pool) throws IOException {
+    removeStaleSocket(socket);
+    ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+    server.bind(UnixDomainSocketAddress.of(socket));
+    Runtime.getRuntime()
+        .addShutdownHook(
+            new Thread(
+                () -> {
+                  try {
+                    server.close();
+                    Files.deleteIfExists(socket);
+                  } catch (IOException e) {
+                    System.err.println("Could not remove " + socket + ": " + e.getMessage());
+                  }
+                }));
+    System.out.println("Listening on " + socket);
+
+    ExecutorService connections =
+        Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("sg-daemon-%d").setDaemon(true).build());
+    while (server.isOpen()) {
+      SocketChannel client;
+      try {
+        client = server.accept();
+      } catch (IOException e) {
+        if (!server.isOpen()) {
+          return;
+        }
+        throw e;
+      }
+      connections.execute(() -> handle(client, pool));
+    }
+  }
+
+  // Throws rather than remove anything that isn't this user's socket.
+  private static void removeStaleSocket(Path socket) throws IOException {
+    PosixFileAttributes attributes;
+    try {
+      attributes =
+          Files.readAttributes(socket, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    } catch (NoSuchFileException e) {
+      return;
+    }
+    String user = System.getProperty("user.name");
+    if (!attributes.isOther() || !attributes.owner().getName().equals(user)) {
+      throw new IOException(
+          socket + " already exists and is not a socket owned by " + user
+              + "; remove it or choose another path with --daemon=path.");
+    }
+    Files.delete(socket);
+  }
+
+  private static void handle(SocketChannel client, ExecutorService pool) {
+    try (client;
+        BufferedReader in = new BufferedReader(Channels.newReader(client, UTF_8));
+        Writer out = Channels.newWriter(client, UTF_8)) {
+      BatchRunner.run(in, out, pool);
+    } catch (IOException e) {
+      // The client went away; nothing is left to answer.
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // Sends request (one "rolls level" line), or every line of standard input if it's empty, and
+  // prints the answers as they arrive.
+  static void client(Path socket, List<String> request, PrintStream output) throws IOException {
+    try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+      Writer out = Channels.newWriter(channel, UTF_8);
+      Thread sender =
+          new Thread(
+              () -> {
+                try {
+                  if (request.isEmpty()) {
+                    new InputStreamReader(System.in, UTF_8).transferTo(out);
+                  } else {
+                    out.write(String.join(" ", request));
+                    out.write('\n');
+                  }
+                  out.flush();
+                  channel.shutdownOutput();
+                } catch (IOException e) {
+                  output.println("Could not send the request: " + e.getMessage());
+                }
+              },
+              "sg-client-sender");
+      sender.setDaemon(true);
+      sender.start();
+
+      BufferedReader in = new BufferedReader(Channels.newReader(channel, UTF_8));
+      for (String line = in.readLine(); line != null; line = in.readLine()) {
+        output.println(line);
+      }
+    }
+  }
+}
@@ -2,21 +2,32 @@ package sg.discord;
 
 import com.google.common.base.Charsets;
 import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.io.CharStreams;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import sg.common.SacredGeometry;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.javacord.api.DiscordApi;
 import org.javacord.api.DiscordApiBuilder;
+import org.javacord.api.entity.server.Server;
+import sg.common.SacredGeometry;
+import sg.common.SolveSession;
+import sg.common.SolverStats;
 
 public class SacredGeometryDiscord {
   private static final String sgCommandExpression = "!sg (.*)";
   private static final Pattern sgCommandPattern = Pattern.compile(sgCommandExpression);
 
+  private static final long METRICS_INTERVAL_SECONDS =
+      Long.getLong("sg.discord.metricsIntervalSeconds", 60);
+  // How long a user's last roll is kept for "reroll" and "add" after their last request.
+  private static final long SESSION_MINUTES = Long.getLong("sg.discord.sessionMinutes", 30);
+
   private static final String token;
 
   static {
@@ -32,13 +43,19 @@ public class SacredGeometryDiscord {
   public static void main(String[] args) {
     DiscordApi api = new DiscordApiBuilder().setToken(token).login().join();
 
+    SolverExecutor solver = new SolverExecutor();
+    solver.reportEvery(METRICS_INTERVAL_SECONDS, System.out::println);
+    SolverStats.registerMBean();
+    Cache<Long, SolveSession> sessions =
+        CacheBuilder.newBuilder().expireAfterAccess(SESSION_MINUTES, TimeUnit.MINUTES).build();
+
+    // Solving happens on the solver's threads; the listener only parses the command and queues it.
     api.addMessageCreateListener(
         event -> {
           Matcher sgCommandMatcher = sgCommandPattern.matcher(event.getMessageContent());
           if (!sgCommandMatcher.matches()) {
             return;
           }
-          StringBuilder message = new StringBuilder();
 
           List<String> commandArguments =
               Splitter.on(' ')
@@ -46,13 +63,31 @@ public class SacredGeometryDiscord {
                   .trimResults()
                   .splitToList(sgCommandMatcher.group(1));
 
-          try {
-            SacredGeometry.sacredGeometry(commandArguments, message::append);
-          } catch (IllegalArgumentException e) {
-            message.append(e.getMessage());
+          // Statistics are answered straight away, so they can be read even when the queue is full.
+          if (commandArguments.size() == 1 && commandArguments.get(0).equalsIgnoreCase("stats")) {
+            event
+                .getChannel()
+                .sendMessage("Solver: " + SolverStats.global() + "\nQueue: " + solver.metrics());
+            return;
           }
 
-          event.getChannel().sendMessage(message.toString());
+          long userId = event.getMessageAuthor().getId();
+          // Direct messages have no server, so they're only limited per user.
+          long guildId = event.getServer().map(Server::getId).orElse(userId);
+          SolveSession session = sessions.asMap().computeIfAbsent(userId, id -> new SolveSession());
+          solver.submit(
+              userId,
+              guildId,
+              budget -> {
+                StringBuilder message = new StringBuilder();
+                try {
+                  SacredGeometry.sacredGeometry(commandArguments, session, budget, message::append);
+                } catch (IllegalArgumentException e) {
+                  message.append(e.getMessage());
+                }
+                return message.toString();
+              },
+              reply -> event.getChannel().sendMessage(reply));
         });
 
     System.out.println(
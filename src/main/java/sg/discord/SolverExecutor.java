@@ -0,0 +1,283 @@
+package sg.discord;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import sg.common.CancellationToken;
+import sg.common.SearchBudget;
+
+// Runs bot requests on a fixed pool of solver threads, so a slow solve never holds up javacord's
+// event dispatch or other channels. Requests wait in a bounded queue, and each user and guild may
+// only have a few in flight at once. A request that runs long gets a "still searching" reply, and
+// one that runs too long has its search budget cancelled and is answered with "gave up". A request
+// holds its user and guild slots until its solve has actually returned, so giving up never lets
+// more searches run at once than the limits allow.
+final class SolverExecutor {
+  static final int WORKERS =
+      Integer.getInteger("sg.discord.workers", Runtime.getRuntime().availableProcessors());
+  static final int QUEUE_CAPACITY = Integer.getInteger("sg.discord.queueCapacity", 64);
+  static final int PER_USER_LIMIT = Integer.getInteger("sg.discord.perUserLimit", 1);
+  static final int PER_GUILD_LIMIT = Integer.getInteger("sg.discord.perGuildLimit", 4);
+  static final long STILL_SEARCHING_SECONDS = Long.getLong("sg.discord.stillSearchingSeconds", 5);
+  static final long GIVE_UP_SECONDS = Long.getLong("sg.discord.giveUpSeconds", 30);
+
+  private final ThreadPoolExecutor workers;
+  private final ScheduledExecutorService timer;
+  private final int perUserLimit;
+  private final int perGuildLimit;
+  private final long stillSearchingSeconds;
+  private final long giveUpSeconds;
+
+  // Requests in flight per user and per guild. Counts only change inside the map's compute
+  // methods, so a check and its increment are atomic, and a count reaching 0 is removed.
+  private final ConcurrentMap<Long, Integer> userRequests = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Long, Integer> guildRequests = new ConcurrentHashMap<>();
+  private final SolverMetrics metrics;
+
+  SolverExecutor() {
+    this(
+        WORKERS,
+        QUEUE_CAPACITY,
+        PER_USER_LIMIT,
+        PER_GUILD_LIMIT,
+        STILL_SEARCHING_SECONDS,
+        GIVE_UP_SECONDS);
+  }
+
+  SolverExecutor(
+      int workerCount,
+      int queueCapacity,
+      int perUserLimit,
+      int perGuildLimit,
+      long stillSearchingSeconds,
+      long giveUpSeconds) {
+    this.workers =
+        new ThreadPoolExecutor(
+            workerCount,
+            workerCount,
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            new ThreadFactoryBuilder().setNameFormat("sg-solver-%d").build());
+    ScheduledThreadPoolExecutor scheduler =
+        new ScheduledThreadPoolExecutor(
+            1, new ThreadFactoryBuilder().setNameFormat("sg-solver-timer").setDaemon(true).build());
+    scheduler.setRemoveOnCancelPolicy(true);
+    this.timer = scheduler;
+    this.perUserLimit = perUserLimit;
+    this.perGuildLimit = perGuildLimit;
+    this.stillSearchingSeconds = stillSearchingSeconds;
+    this.giveUpSeconds = giveUpSeconds;
+    this.metrics = new SolverMetrics(() -> workers.getQueue().size(), workers::getActiveCount);
+  }
+
+  SolverMetrics metrics() {
+    return metrics;
+  }
+
+  // Writes the metrics to output every interval, skipping intervals with no new requests.
+  void reportEvery(long seconds, Consumer<String> output) {
+    long[] lastSubmitted = {-1};
+    timer.scheduleAtFixedRate(
+        () -> {
+          long submitted = metrics.submittedCount();
+          if (submitted != lastSubmitted[0]) {
+            lastSubmitted[0] = submitted;
+            output.accept("Solver: " + metrics);
+          }
+        },
+        seconds,
+        seconds,
+        TimeUnit.SECONDS);
+  }
+
+  // Queues solve and returns straight away. solve is given a budget that is cancelled if the
+  // request is abandoned. reply is called with the solve's message, or with the reason it was
+  // refused or abandoned, and possibly a "still searching" note before that.
+  void submit(
+      long userId, long guildId, Function<SearchBudget, String> solve, Consumer<String> reply) {
+    if (!acquire(userRequests, userId, perUserLimit)) {
+      metrics.limited();
+      reply.accept(
+          "You already have "
+              + (perUserLimit == 1 ? "a request" : perUserLimit + " requests")
+              + " running; please wait for "
+              + (perUserLimit == 1 ? "it" : "one")
+              + " to finish.");
+      return;
+    }
+    if (!acquire(guildRequests, guildId, perGuildLimit)) {
+      release(userRequests, userId);
+      metrics.limited();
+      reply.accept(
+          "This server already has " + perGuildLimit + " requests running; try again shortly.");
+      return;
+    }
+
+    CancellationToken cancellation = new CancellationToken();
+    Request request =
+        new Request(
+            userId,
+            guildId,
+            cancellation,
+            () -> solve.apply(SearchBudget.unlimited().withCancellation(cancellation)),
+            reply);
+    try {
+      workers.execute(request);
+    } catch (RejectedExecutionException e) {
+      request.release();
+      metrics.rejected();
+      reply.accept("The bot is too busy right now; try again shortly.");
+      return;
+    }
+    metrics.submitted();
+    request.scheduleTimeouts();
+  }
+
+  void shutdown() {
+    workers.shutdownNow();
+    timer.shutdownNow();
+  }
+
+  private static boolean acquire(ConcurrentMap<Long, Integer> counts, long id, int limit) {
+    boolean[] acquired = {false};
+    counts.compute(
+        id,
+        (k, count) -> {
+          int current = count == null ? 0 : count;
+          if (current >= limit) {
+            return count;
+          }
+          acquired[0] = true;
+          return current + 1;
+        });
+    return acquired[0];
+  }
+
+  private static void release(ConcurrentMap<Long, Integer> counts, long id) {
+    counts.compute(id, (k, count) -> count == null || count <= 1 ? null : count - 1);
+  }
+
+  private final class Request extends FutureTask<String> {
+    private final long userId;
+    private final long guildId;
+    private final CancellationToken cancellation;
+    private final Consumer<String> reply;
+    private final long submitted = System.nanoTime();
+
+    // Set by whichever of the solve or the give-up timeout answers first.
+    private final AtomicBoolean answered = new AtomicBoolean();
+    private final AtomicBoolean released = new AtomicBoolean();
+    private volatile boolean started;
+    private volatile ScheduledFuture<?> stillSearching;
+    private volatile ScheduledFuture<?> giveUp;
+
+    Request(
+        long userId,
+        long guildId,
+        CancellationToken cancellation,
+        Callable<String> solve,
+        Consumer<String> reply) {
+      super(solve);
+      this.userId = userId;
+      this.guildId = guildId;
+      this.cancellation = cancellation;
+      this.reply = reply;
+    }
+
+    @Override
+    public void run() {
+      if (isDone()) {
+        return;
+      }
+      long start = System.nanoTime();
+      started = true;
+      metrics.recordWait(start - submitted);
+      super.run();
+      metrics.recordSolve(System.nanoTime() - start);
+    }
+
+    private void scheduleTimeouts() {
+      stillSearching =
+          timer.schedule(this::stillSearching, stillSearchingSeconds, TimeUnit.SECONDS);
+      giveUp = timer.schedule(this::giveUp, giveUpSeconds, TimeUnit.SECONDS);
+    }
+
+    private void stillSearching() {
+      if (!answered.get()) {
+        reply.accept(
+            started
+                ? "Still searching..."
+                : "Still waiting for a free solver (" + metrics.queueDepth() + " queued)...");
+      }
+    }
+
+    // The cancelled budget stops the search at its next check, without interrupting the worker;
+    // whatever it returns afterwards is dropped, and done() releases the slots then. A request
+    // still in the queue never runs, so it is cancelled outright.
+    private void giveUp() {
+      if (answered.compareAndSet(false, true)) {
+        metrics.timedOut();
+        reply.accept("Gave up after " + giveUpSeconds + " seconds without finding a result.");
+        cancellation.cancel();
+        if (workers.remove(this)) {
+          cancel(false);
+        }
+      }
+    }
+
+    // Called once the request completes, or is cancelled before it ran.
+    @Override
+    protected void done() {
+      if (stillSearching != null) {
+        stillSearching.cancel(false);
+      }
+      if (giveUp != null) {
+        giveUp.cancel(false);
+      }
+      release();
+
+      if (isCancelled() || !answered.compareAndSet(false, true)) {
+        return;
+      }
+      try {
+        String message = get();
+        metrics.completed();
+        reply.accept(message);
+      } catch (ExecutionException e) {
+        metrics.failed();
+        reply.accept("Something went wrong while solving that request.");
+        System.err.println(
+            "Could not solve a request from user "
+                + userId
+                + " in guild "
+                + guildId
+                + ": "
+                + e.getCause());
+      } catch (InterruptedException e) {
+        // Unreachable: the task is already done, so get() doesn't wait.
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private void release() {
+      if (released.compareAndSet(false, true)) {
+        SolverExecutor.release(userRequests, userId);
+        SolverExecutor.release(guildRequests, guildId);
+      }
+    }
+  }
+}
@@ -0,0 +1,150 @@
+package sg.discord;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+// Counters and timings for SolverExecutor. Everything is cumulative since the bot started; the
+// queue depth and active count are read live from the executor.
+final class SolverMetrics {
+  private final IntSupplier queueDepth;
+  private final IntSupplier active;
+
+  private final LongAdder submitted = new LongAdder();
+  private final LongAdder completed = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder limited = new LongAdder();
+  private final LongAdder timedOut = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+
+  private final Timing wait = new Timing();
+  private final Timing solve = new Timing();
+
+  SolverMetrics(IntSupplier queueDepth, IntSupplier active) {
+    this.queueDepth = queueDepth;
+    this.active = active;
+  }
+
+  void submitted() {
+    submitted.increment();
+  }
+
+  void completed() {
+    completed.increment();
+  }
+
+  // The queue was full.
+  void rejected() {
+    rejected.increment();
+  }
+
+  // The user or guild was already at its concurrency limit.
+  void limited() {
+    limited.increment();
+  }
+
+  void timedOut() {
+    timedOut.increment();
+  }
+
+  void failed() {
+    failed.increment();
+  }
+
+  void recordWait(long nanos) {
+    wait.record(nanos);
+  }
+
+  void recordSolve(long nanos) {
+    solve.record(nanos);
+  }
+
+  int queueDepth() {
+    return queueDepth.getAsInt();
+  }
+
+  int active() {
+    return active.getAsInt();
+  }
+
+  long submittedCount() {
+    return submitted.sum();
+  }
+
+  long completedCount() {
+    return completed.sum();
+  }
+
+  long rejectedCount() {
+    return rejected.sum();
+  }
+
+  long limitedCount() {
+    return limited.sum();
+  }
+
+  long timedOutCount() {
+    return timedOut.sum();
+  }
+
+  long failedCount() {
+    return failed.sum();
+  }
+
+  double meanWaitMillis() {
+    return wait.meanMillis();
+  }
+
+  double maxWaitMillis() {
+    return wait.maxMillis();
+  }
+
+  double meanSolveMillis() {
+    return solve.meanMillis();
+  }
+
+  double maxSolveMillis() {
+    return solve.maxMillis();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "queue %d, active %d, submitted %d, completed %d, rejected %d, limited %d, timed out %d,"
+            + " failed %d, wait %.1fms mean / %.1fms max, solve %.1fms mean / %.1fms max",
+        queueDepth(),
+        active(),
+        submittedCount(),
+        completedCount(),
+        rejectedCount(),
+        limitedCount(),
+        timedOutCount(),
+        failedCount(),
+        meanWaitMillis(),
+        maxWaitMillis(),
+        meanSolveMillis(),
+        maxSolveMillis());
+  }
+
+  private static final class Timing {
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    void record(long nanos) {
+      count.increment();
+      totalNanos.add(nanos);
+      maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    double meanMillis() {
+      long n = count.sum();
+      return n == 0 ? 0 : totalNanos.sum() / (double) n / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    double maxMillis() {
+      return maxNanos.get() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+  }
+}
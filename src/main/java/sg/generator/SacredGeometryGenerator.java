@@ -0,0 +1,69 @@
+package sg.generator;
+
+import java.io.IOException;
+import sg.common.SuccessOdds;
+import sg.common.TableGenerator;
+
+public class SacredGeometryGenerator {
+  private static final String MAX_DICE = "--max-dice=";
+  private static final String FACES = "--faces=";
+  private static final String OUTPUT = "--output=";
+  private static final String THREADS = "--threads=";
+  private static final String CONVERT = "--convert";
+  private static final String ODDS = "--odds";
+  private static final String STORE = "--store";
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    int maxDice = 20;
+    // Unless given, --odds reports both d6 and d8.
+    Integer faces = null;
+    String output = TableGenerator.defaultDirectory();
+    int threads = Runtime.getRuntime().availableProcessors();
+    boolean convert = false;
+    boolean odds = false;
+    boolean store = false;
+
+    try {
+      for (String arg : args) {
+        if (arg.startsWith(MAX_DICE)) {
+          maxDice = Integer.parseInt(arg.substring(MAX_DICE.length()));
+        } else if (arg.startsWith(FACES)) {
+          faces = Integer.parseInt(arg.substring(FACES.length()));
+        } else if (arg.startsWith(OUTPUT)) {
+          output = arg.substring(OUTPUT.length());
+          if (!output.endsWith("/")) {
+            output += "/";
+          }
+        } else if (arg.startsWith(THREADS)) {
+          threads = Integer.parseInt(arg.substring(THREADS.length()));
+        } else if (arg.equals(CONVERT)) {
+          convert = true;
+        } else if (arg.equals(ODDS)) {
+          odds = true;
+        } else if (arg.equals(STORE)) {
+          store = true;
+        } else {
+          throw new IllegalArgumentException(
+              "Usage: [--max-dice=20] [--faces=8] [--output=src/main/resources/] [--threads=N]"
+                  + " [--convert | --odds | --store]");
+        }
+      }
+
+      if (convert) {
+        TableGenerator.convert(output, System.out::print);
+      } else if (store) {
+        TableGenerator.generateStore(output, maxDice, threads, System.out::print);
+      } else if (odds) {
+        for (int dieSize : faces != null ? new int[] {faces} : new int[] {6, 8}) {
+          SuccessOdds.printTable(
+              dieSize, Math.min(maxDice, SuccessOdds.MAX_DICE), System.out::print);
+        }
+      } else {
+        new TableGenerator(faces != null ? faces : 8, maxDice, output, threads, System.out::print)
+            .generate();
+      }
+    } catch (IllegalArgumentException e) {
+      System.out.println(e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,212 @@
+package sg.http;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Just enough JSON for the solve service: objects become Maps, arrays Lists, numbers Doubles, and
+// true / false / null themselves. Malformed input throws IllegalArgumentException, as does
+// nesting deeper than MAX_DEPTH, which would otherwise overflow the parser's stack.
+final class Json {
+  static final int MAX_DEPTH = 64;
+
+  private final String text;
+  private int position;
+  private int depth;
+
+  private Json(String text) {
+    this.text = text;
+  }
+
+  static Object parse(String text) {
+    Json json = new Json(text);
+    Object value = json.value();
+    json.skipWhitespace();
+    if (json.position != text.length()) {
+      throw json.error("Unexpected text after the JSON value");
+    }
+    return value;
+  }
+
+  static void quote(String s, StringBuilder out) {
+    out.append('"');
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      switch (c) {
+        case '"' -> out.append("\\\"");
+        case '\\' -> out.append("\\\\");
+        case '\n' -> out.append("\\n");
+        case '\r' -> out.append("\\r");
+        case '\t' -> out.append("\\t");
+        default -> {
+          if (c < 0x20) {
+            out.append(String.format("\\u%04x", (int) c));
+          } else {
+            out.append(c);
+          }
+        }
+      }
+    }
+    out.append('"');
+  }
+
+  private Object value() {
+    skipWhitespace();
+    if (position >= text.length()) {
+      throw error("Unexpected end of JSON");
+    }
+    char c = text.charAt(position);
+    switch (c) {
+      case '{':
+      case '[':
+        if (++depth > MAX_DEPTH) {
+          throw error("JSON nested more than " + MAX_DEPTH + " deep");
+        }
+        Object nested = c == '{' ? object() : array();
+        depth--;
+        return nested;
+      case '"':
+        return string();
+      case 't':
+        return literal("true", Boolean.TRUE);
+      case 'f':
+        return literal("false", Boolean.FALSE);
+      case 'n':
+        return literal("null", null);
+      default:
+        if (c == '-' || (c >= '0' && c <= '9')) {
+          return number();
+        }
+        throw error("Unexpected character '" + c + "'");
+    }
+  }
+
+  private Map<String, Object> object() {
+    Map<String, Object> object = new LinkedHashMap<>();
+    position++;
+    skipWhitespace();
+    if (peek('}')) {
+      position++;
+      return object;
+    }
+    while (true) {
+      skipWhitespace();
+      if (!peek('"')) {
+        throw error("Expected a quoted key");
+      }
+      String key = string();
+      skipWhitespace();
+      expect(':');
+      object.put(key, value());
+      skipWhitespace();
+      if (peek(',')) {
+        position++;
+      } else {
+        expect('}');
+        return object;
+      }
+    }
+  }
+
+  private List<Object> array() {
+    List<Object> array = new ArrayList<>();
+    position++;
+    skipWhitespace();
+    if (peek(']')) {
+      position++;
+      return array;
+    }
+    while (true) {
+      array.add(value());
+      skipWhitespace();
+      if (peek(',')) {
+        position++;
+      } else {
+        expect(']');
+        return array;
+      }
+    }
+  }
+
+  private String string() {
+    StringBuilder s = new StringBuilder();
+    position++;
+    while (position < text.length()) {
+      char c = text.charAt(position++);
+      if (c == '"') {
+        return s.toString();
+      }
+      if (c != '\\') {
+        s.append(c);
+        continue;
+      }
+      if (position >= text.length()) {
+        break;
+      }
+      char escaped = text.charAt(position++);
+      switch (escaped) {
+        case '"', '\\', '/' -> s.append(escaped);
+        case 'b' -> s.append('\b');
+        case 'f' -> s.append('\f');
+        case 'n' -> s.append('\n');
+        case 'r' -> s.append('\r');
+        case 't' -> s.append('\t');
+        case 'u' -> {
+          if (position + 4 > text.length()) {
+            throw error("Incomplete unicode escape");
+          }
+          try {
+            s.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+          } catch (NumberFormatException e) {
+            throw error("Invalid unicode escape");
+          }
+          position += 4;
+        }
+        default -> throw error("Invalid escape '\\" + escaped + "'");
+      }
+    }
+    throw error("Unterminated string");
+  }
+
+  private Double number() {
+    int start = position;
+    while (position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) >= 0) {
+      position++;
+    }
+    try {
+      return Double.valueOf(text.substring(start, position));
+    } catch (NumberFormatException e) {
+      throw error("Invalid number");
+    }
+  }
+
+  private Object literal(String word, Object value) {
+    if (!text.startsWith(word, position)) {
+      throw error("Unexpected text");
+    }
+    position += word.length();
+    return value;
+  }
+
+  private void skipWhitespace() {
+    while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+      position++;
+    }
+  }
+
+  private boolean peek(char c) {
+    return position < text.length() && text.charAt(position) == c;
+  }
+
+  private void expect(char c) {
+    if (!peek(c)) {
+      throw error("Expected '" + c + "'");
+    }
+    position++;
+  }
+
+  private IllegalArgumentException error(String message) {
+    return new IllegalArgumentException(message + " at position " + position + " of the request.");
+  }
+}
@@ -0,0 +1,45 @@
+package sg.http;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import sg.common.SacredGeometryCalculator;
+import sg.common.SolverStats;
+
+// A local JSON solve service; see SolveHandler for the endpoints. The tables are loaded once at
+// startup and stay warm, so a request costs only its solve.
+public class SacredGeometryHttp {
+  private static final String HOST = System.getProperty("sg.http.host", "127.0.0.1");
+  private static final int PORT = Integer.getInteger("sg.http.port", 8080);
+
+  public static void main(String[] args) throws IOException {
+    // Loads the tables (and any store or persistent cache) before the first request arrives.
+    SacredGeometryCalculator.cacheSize();
+    SolverStats.registerMBean();
+
+    ExecutorService executor = newExecutor();
+    Semaphore solves = new Semaphore(SolveHandler.MAX_SOLVES, true);
+    HttpServer server = HttpServer.create(new InetSocketAddress(HOST, PORT), 0);
+    server.createContext("/solve", new SolveHandler(executor, solves, false));
+    server.createContext("/solve/batch", new SolveHandler(executor, solves, true));
+    server.setExecutor(executor);
+    server.start();
+    System.out.println("Listening on http://" + HOST + ":" + server.getAddress().getPort());
+  }
+
+  // A virtual thread per task where the JDK has them (21 and later), otherwise a cached pool.
+  // Either way a request blocked on its batch never starves another of a thread.
+  static ExecutorService newExecutor() {
+    try {
+      return (ExecutorService)
+          Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool(
+          new ThreadFactoryBuilder().setNameFormat("sg-http-%d").setDaemon(true).build());
+    }
+  }
+}
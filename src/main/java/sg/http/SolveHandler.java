@@ -0,0 +1,258 @@
+package sg.http;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import sg.common.RollCounts;
+import sg.common.SacredGeometry;
+import sg.common.SacredGeometryCalculator;
+import sg.common.SearchBudget;
+import sg.common.SolveResult;
+import sg.common.Targets;
+
+// POST /solve takes one request object, and POST /solve/batch an object whose "requests" array
+// holds many; the batch's items are solved concurrently and answered in order. A request is
+//   {"rolls": "3345688" or [3, 3, 4, 5, 6, 8, 8] or "8d6", "level": 1 to 9 or "best",
+//    "timeoutMillis": optional, "maxNodes": optional}
+// and is answered with its status, expression and statistics. A malformed request gets a 400 with
+// an "error", and one the solver fails on a 500; in a batch, only that item does.
+//
+// At most MAX_SOLVES requests, batch items included, are solved at once; the rest wait for a slot
+// before their timeout starts. A batch submits each item only once it has a slot, so a large batch
+// holds no more threads than that either.
+final class SolveHandler implements HttpHandler {
+  static final long DEFAULT_TIMEOUT_MILLIS = Long.getLong("sg.http.timeoutMillis", 10_000);
+  static final int MAX_BATCH = Integer.getInteger("sg.http.maxBatch", 1000);
+  static final int MAX_SOLVES =
+      Integer.getInteger("sg.http.maxSolves", Runtime.getRuntime().availableProcessors());
+  // Requests and batch items longer than this are cut short when logged.
+  private static final int LOGGED_CHARS = 200;
+  private static final String INTERNAL_ERROR = "The request could not be solved.";
+
+  private final ExecutorService executor;
+  // Shared by both endpoints' handlers, with MAX_SOLVES permits.
+  private final Semaphore solves;
+  private final boolean batch;
+
+  SolveHandler(ExecutorService executor, Semaphore solves, boolean batch) {
+    this.executor = executor;
+    this.solves = solves;
+    this.batch = batch;
+  }
+
+  @Override
+  public void handle(HttpExchange exchange) throws IOException {
+    try {
+      String expectedPath = batch ? "/solve/batch" : "/solve";
+      if (!exchange.getRequestURI().getPath().equals(expectedPath)) {
+        respond(exchange, 404, error("No such endpoint."));
+        return;
+      }
+      if (!exchange.getRequestMethod().equals("POST")) {
+        exchange.getResponseHeaders().set("Allow", "POST");
+        respond(exchange, 405, error("Requests must be POSTed."));
+        return;
+      }
+
+      String body = new String(exchange.getRequestBody().readAllBytes(), UTF_8);
+      StringBuilder response = new StringBuilder();
+      try {
+        Object request = Json.parse(body);
+        if (batch) {
+          solveBatch(request, response, exchange.getRemoteAddress().toString());
+        } else {
+          solves.acquireUninterruptibly();
+          try {
+            solve(request, response);
+          } finally {
+            solves.release();
+          }
+        }
+      } catch (IllegalArgumentException e) {
+        respond(exchange, 400, error(e.getMessage()));
+        return;
+      } catch (RuntimeException | StackOverflowError e) {
+        logFailure("a request from " + exchange.getRemoteAddress(), body, e);
+        respond(exchange, 500, error(INTERNAL_ERROR));
+        return;
+      }
+      respond(exchange, 200, response.toString());
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void solveBatch(Object request, StringBuilder response, String client) {
+    Object requests = request instanceof Map ? ((Map<?, ?>) request).get("requests") : null;
+    if (!(requests instanceof List)) {
+      throw new IllegalArgumentException("A batch must be an object with a \"requests\" array.");
+    }
+    List<?> items = (List<?>) requests;
+    if (items.size() > MAX_BATCH) {
+      throw new IllegalArgumentException("A batch may hold at most " + MAX_BATCH + " requests.");
+    }
+
+    List<CompletableFuture<String>> results = new ArrayList<>(items.size());
+    for (int i = 0; i < items.size(); i++) {
+      Object item = items.get(i);
+      String context = "item " + i + " of a batch from " + client;
+      solves.acquireUninterruptibly();
+      try {
+        results.add(
+            CompletableFuture.supplyAsync(
+                () -> {
+                  try {
+                    return solveItem(item, context);
+                  } finally {
+                    solves.release();
+                  }
+                },
+                executor));
+      } catch (RuntimeException e) {
+        solves.release();
+        throw e;
+      }
+    }
+    response.append("{\"results\":[");
+    for (int i = 0; i < results.size(); i++) {
+      response.append(i == 0 ? "" : ",").append(results.get(i).join());
+    }
+    response.append("]}");
+  }
+
+  private static String solveItem(Object item, String context) {
+    StringBuilder result = new StringBuilder();
+    try {
+      solve(item, result);
+    } catch (IllegalArgumentException e) {
+      return error(e.getMessage());
+    } catch (RuntimeException | StackOverflowError e) {
+      logFailure(context, String.valueOf(item), e);
+      return error(INTERNAL_ERROR);
+    }
+    return result.toString();
+  }
+
+  private static void solve(Object request, StringBuilder out) {
+    if (!(request instanceof Map)) {
+      throw new IllegalArgumentException("A request must be a JSON object.");
+    }
+    Map<?, ?> fields = (Map<?, ?>) request;
+    RollCounts rolls = rolls(fields.get("rolls"));
+    Object level = fields.get("level");
+    SearchBudget budget = budget(fields);
+
+    SolveResult result;
+    if ("best".equals(level)) {
+      result = SacredGeometryCalculator.solveBest(rolls, budget);
+    } else if (level instanceof Double || level instanceof String) {
+      Targets target =
+          SacredGeometry.parseLevel(
+              level instanceof Double ? String.valueOf(integer(level, "level")) : (String) level);
+      result = SacredGeometryCalculator.solve(rolls, target, budget);
+    } else {
+      throw new IllegalArgumentException(
+          "\"level\" must be a spell level from 1 to 9 or \"best\".");
+    }
+
+    out.append("{\"rolls\":[");
+    boolean first = true;
+    for (char roll : rolls.rolls().toCharArray()) {
+      out.append(first ? "" : ",").append(roll);
+      first = false;
+    }
+    out.append("],\"status\":");
+    Json.quote(result.status().name(), out);
+    if (result.expression() != null) {
+      out.append(",\"level\":").append(result.level().ordinal());
+      out.append(",\"value\":").append(result.value());
+      out.append(",\"expression\":");
+      Json.quote(result.infix(), out);
+      out.append(",\"postfix\":");
+      Json.quote(result.postfix(), out);
+    }
+    if (result.resolution() != null) {
+      out.append(",\"resolution\":");
+      Json.quote(result.resolution().name(), out);
+    }
+    out.append(",\"nodes\":").append(result.nodes());
+    out.append(",\"memoHits\":").append(result.memoHits());
+    out.append(",\"maxDepth\":").append(result.maxDepth());
+    out.append(",\"millis\":").append(result.elapsedNanos() / 1e6);
+    out.append('}');
+  }
+
+  // A roll string or dice expression, or an array of rolls.
+  private static RollCounts rolls(Object rolls) {
+    if (rolls instanceof String) {
+      return SacredGeometry.parseRolls((String) rolls);
+    }
+    if (rolls instanceof List) {
+      StringBuilder digits = new StringBuilder();
+      for (Object roll : (List<?>) rolls) {
+        long value = integer(roll, "rolls");
+        if (value < 1 || value > 8) {
+          throw new IllegalArgumentException(value + " is not a valid roll (from 1 to 8).");
+        }
+        digits.append(value);
+      }
+      return SacredGeometry.parseRolls(digits.toString());
+    }
+    throw new IllegalArgumentException("\"rolls\" must be a string of rolls or an array of them.");
+  }
+
+  private static SearchBudget budget(Map<?, ?> fields) {
+    long timeout =
+        fields.containsKey("timeoutMillis")
+            ? integer(fields.get("timeoutMillis"), "timeoutMillis")
+            : DEFAULT_TIMEOUT_MILLIS;
+    SearchBudget budget = SearchBudget.unlimited();
+    if (timeout > 0) {
+      budget = budget.withTimeout(Duration.ofMillis(timeout));
+    }
+    if (fields.containsKey("maxNodes")) {
+      budget = budget.withMaxNodes(integer(fields.get("maxNodes"), "maxNodes"));
+    }
+    return budget;
+  }
+
+  private static long integer(Object value, String field) {
+    if (!(value instanceof Double) || (Double) value != Math.rint((Double) value)) {
+      throw new IllegalArgumentException("\"" + field + "\" must hold whole numbers.");
+    }
+    return ((Double) value).longValue();
+  }
+
+  // Internal errors go to standard error, with what was being solved, like the solver's other
+  // warnings.
+  private static void logFailure(String context, String request, Throwable e) {
+    String shown =
+        request.length() > LOGGED_CHARS ? request.substring(0, LOGGED_CHARS) + "..." : request;
+    System.err.println("Could not solve " + context + " (" + shown + "): " + e);
+  }
+
+  private static String error(String message) {
+    StringBuilder out = new StringBuilder("{\"error\":");
+    Json.quote(message, out);
+    return out.append('}').toString();
+  }
+
+  private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+    byte[] bytes = body.getBytes(UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package sg.common;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.Multiset;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+
+public class ParallelSearchTest {
+  // A 9 can't be packed, so the calculator searches these every time rather than caching them.
+  private static final Multiset<Integer> ROLLS =
+      ImmutableMultiset.of(1, 2, 3, 4, 5, 6, 7, 8, 9, 1, 2, 3);
+
+  @Test
+  public void solvesTwiceOnOneControl() {
+    ForkJoinPool pool = new ForkJoinPool(2);
+    try {
+      SearchControl control = SearchControl.unlimited();
+      PostfixExpression first =
+          ParallelSearch.search(ROLLS, Targets.NINE.targetValues(), 2, pool, control);
+      PostfixExpression second =
+          ParallelSearch.search(ROLLS, Targets.NINE.targetValues(), 2, pool, control);
+
+      assertNotNull(first);
+      assertNotNull("a finished search stopped the next one", second);
+      assertTrue(Targets.NINE.targetValues().contains(second.expressionResult()));
+      assertFalse(control.isStopped());
+      assertNull(control.stopReason());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void calculatorSolvesTwiceOnOneControl() {
+    SearchControl control = SearchControl.unlimited();
+    assertNotNull(SacredGeometryCalculator.calculateExpression(ROLLS, Targets.NINE, control));
+    assertNotNull(SacredGeometryCalculator.calculateExpression(ROLLS, Targets.NINE, control));
+    assertNull(control.stopReason());
+  }
+}
@@ -0,0 +1,93 @@
+package sg.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.Multiset;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.Test;
+
+public class RankStoreTest {
+  private static final int RANKED_DICE = 8;
+  private static final int STORED_DICE = 5;
+  private static final int SIDES = PackedRollSet.FACES;
+
+  // Every roll set of up to RANKED_DICE dice, the empty one included, has its own rank, the ranks
+  // run from 0 with no gaps, and they follow the order the class comment and the generator use.
+  @Test
+  public void ranksAreDenseAndOrdered() {
+    List<Multiset<Integer>> rollSets = SearchEngineTest.rollSets(RANKED_DICE, SIDES);
+    long[] byRank = new long[rollSets.size() + 1];
+    assertEquals(0, RankStore.rank(0L));
+    for (Multiset<Integer> rollSet : rollSets) {
+      long packed = PackedRollSet.of(rollSet);
+      int rank = RankStore.rank(packed);
+      assertTrue(rollSet + " has rank " + rank, rank > 0 && rank < byRank.length);
+      assertEquals(rollSet + " shares rank " + rank, 0L, byRank[rank]);
+      byRank[rank] = packed;
+    }
+    for (int rank = 1; rank < byRank.length; rank++) {
+      assertTrue(
+          "rank " + rank + " comes before rank " + (rank - 1),
+          compare(byRank[rank - 1], byRank[rank]) < 0);
+    }
+  }
+
+  // Twenty 8s come after the C(27, 8) roll sets of fewer dice, and twenty 1s are the last of the
+  // C(28, 8) in all.
+  @Test
+  public void ranksReachTheLargestRollSets() {
+    assertEquals(2_220_075, RankStore.rank(repeated(SIDES, RankStore.MAX_DICE)));
+    assertEquals(3_108_104, RankStore.rank(repeated(1, RankStore.MAX_DICE)));
+  }
+
+  // A store generated from the tables and the search reaches exactly the levels Reference does,
+  // with an expression for each that checks out from its string.
+  @Test
+  public void generatedLevelsMatchReference() throws IOException, InterruptedException {
+    Path path = Files.createTempFile("sg", ".store");
+    try {
+      RankStore.generate(path, STORED_DICE, 1, line -> {});
+      RankStore store = RankStore.open(path);
+      assertEquals(STORED_DICE, store.maxDice());
+      for (Multiset<Integer> rollSet : SearchEngineTest.rollSets(STORED_DICE, SIDES)) {
+        long packed = PackedRollSet.of(rollSet);
+        int levels = store.levels(packed);
+        for (Targets targets : Targets.values()) {
+          boolean reached = (levels & 1 << targets.ordinal()) != 0;
+          assertEquals(
+              rollSet + " at " + targets,
+              SearchEngineTest.Reference.solves(rollSet, targets.targetValues()),
+              reached);
+          PostfixExpression expression = store.expression(packed, targets);
+          if (reached) {
+            SearchEngineTest.assertSolves(rollSet, targets, expression);
+          } else {
+            assertNull(rollSet + " at " + targets, expression);
+          }
+        }
+      }
+    } finally {
+      Files.delete(path);
+    }
+  }
+
+  // Orders packed roll sets by size, then by count of 1s, of 2s and so on.
+  private static int compare(long a, long b) {
+    int result = Integer.compare(PackedRollSet.size(a), PackedRollSet.size(b));
+    for (int face = 1; result == 0 && face < SIDES; face++) {
+      result = Integer.compare(PackedRollSet.count(a, face), PackedRollSet.count(b, face));
+    }
+    return result;
+  }
+
+  private static long repeated(int face, int dice) {
+    int[] counts = new int[SIDES];
+    counts[face - 1] = dice;
+    return PackedRollSet.of(counts);
+  }
+}
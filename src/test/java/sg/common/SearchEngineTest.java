@@ -0,0 +1,190 @@
+package sg.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.Multiset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+
+public class SearchEngineTest {
+  private static final int MAX_DICE = 5;
+  private static final int SIDES = 8;
+
+  @Test
+  public void findsSolutionExactlyWhenReferenceDoes() {
+    for (Multiset<Integer> rollSet : rollSets(MAX_DICE, SIDES)) {
+      for (Targets targets : Targets.values()) {
+        PostfixExpression result =
+            SacredGeometryCalculator.calculateWithoutLookup(rollSet, targets);
+        assertEquals(
+            rollSet + " at " + targets,
+            Reference.solves(rollSet, targets.targetValues()),
+            result != null);
+        if (result != null) {
+          assertSolves(rollSet, targets, result);
+        }
+      }
+    }
+  }
+
+  // mergeAll and hasEarlierDuplicate skip merges that repeat an earlier one; the unrolled endgame
+  // applies the same pruning, so each size it can take over from the search is checked as well.
+  @Test
+  public void pruningDropsNoSolutions() {
+    for (Multiset<Integer> rollSet : rollSets(MAX_DICE, SIDES)) {
+      long[] values = rollSet.stream().mapToLong(Integer::longValue).toArray();
+      PostfixExpression[] expressions =
+          rollSet.stream().map(PostfixExpression::create).toArray(PostfixExpression[]::new);
+      for (Targets targets : Targets.values()) {
+        boolean expected = Reference.solves(rollSet, targets.targetValues());
+        for (int endgame = 1; endgame <= 4; endgame++) {
+          PostfixExpression result =
+              new SearchEngine(
+                      values,
+                      expressions,
+                      SearchEngine.toArray(targets.targetValues()),
+                      new VisitedStates(),
+                      SearchControl.unlimited(),
+                      endgame)
+                  .search();
+          assertEquals(
+              rollSet + " at " + targets + " with endgame " + endgame, expected, result != null);
+          if (result != null) {
+            assertSolves(rollSet, targets, result);
+          }
+        }
+      }
+    }
+  }
+
+  // Checks the expression from its string alone, so a wrong cached result can't hide a mistake.
+  static void assertSolves(Multiset<Integer> rollSet, Targets targets, PostfixExpression result) {
+    String s = result.expressionString();
+    Multiset<Integer> digits = HashMultiset.create();
+    Deque<Long> stack = new ArrayDeque<>();
+    for (char c : s.toCharArray()) {
+      if (c >= '0' && c <= '9') {
+        digits.add(c - '0');
+        stack.push((long) (c - '0'));
+        continue;
+      }
+      long right = stack.pop();
+      long left = stack.pop();
+      switch (Operators.fromCharacter(c)) {
+        case ADD -> stack.push(left + right);
+        case SUB -> stack.push(left - right);
+        case MULT -> stack.push(left * right);
+        case DIV -> {
+          if (right == 0 || left % right != 0) {
+            fail(s + " divides " + left + " by " + right);
+          }
+          stack.push(left / right);
+        }
+      }
+    }
+    assertEquals(s, 1, stack.size());
+    assertTrue(s + " misses " + targets, targets.targetValues().contains(stack.pop()));
+    assertEquals(s + " for " + rollSet, rollSet, digits);
+  }
+
+  // Every roll set of 1 to maxDice dice with the given number of sides.
+  static List<Multiset<Integer>> rollSets(int maxDice, int sides) {
+    List<Multiset<Integer>> rollSets = new ArrayList<>();
+    addRollSets(rollSets, new int[maxDice], 0, 1, sides);
+    return rollSets;
+  }
+
+  private static void addRollSets(
+      List<Multiset<Integer>> rollSets, int[] rolls, int size, int lowest, int sides) {
+    if (size > 0) {
+      ImmutableMultiset.Builder<Integer> builder = ImmutableMultiset.builder();
+      for (int i = 0; i < size; i++) {
+        builder.add(rolls[i]);
+      }
+      rollSets.add(builder.build());
+    }
+    if (size == rolls.length) {
+      return;
+    }
+    for (int roll = lowest; roll <= sides; roll++) {
+      rolls[size] = roll;
+      addRollSets(rollSets, rolls, size + 1, roll, sides);
+    }
+  }
+
+  // The search calculateHelper used to make: every ordered pair of values under every operation,
+  // negative values included, with a division only when it comes out even. It prunes nothing but
+  // value sets it has already seen fail.
+  static final class Reference {
+    private final Set<Long> targets;
+    private final Set<List<Long>> failed = new HashSet<>();
+
+    private Reference(Set<Long> targets) {
+      this.targets = targets;
+    }
+
+    static boolean solves(Multiset<Integer> rollSet, Set<Long> targets) {
+      return new Reference(targets)
+          .solves(rollSet.stream().mapToLong(Integer::longValue).toArray());
+    }
+
+    private boolean solves(long[] values) {
+      if (values.length == 1) {
+        return targets.contains(values[0]);
+      }
+      long[] sorted = values.clone();
+      Arrays.sort(sorted);
+      List<Long> key = new ArrayList<>();
+      for (long value : sorted) {
+        key.add(value);
+      }
+      if (failed.contains(key)) {
+        return false;
+      }
+
+      long[] next = new long[values.length - 1];
+      for (int i = 0; i < values.length; i++) {
+        for (int j = 0; j < values.length; j++) {
+          if (i == j) {
+            continue;
+          }
+          int n = 0;
+          for (int k = 0; k < values.length; k++) {
+            if (k != i && k != j) {
+              next[n++] = values[k];
+            }
+          }
+          long a = values[i];
+          long b = values[j];
+          for (Operators operator : Operators.values()) {
+            if (operator == Operators.DIV && (b == 0 || a % b != 0)) {
+              continue;
+            }
+            next[n] =
+                switch (operator) {
+                  case ADD -> a + b;
+                  case SUB -> a - b;
+                  case MULT -> a * b;
+                  case DIV -> a / b;
+                };
+            if (solves(next.clone())) {
+              return true;
+            }
+          }
+        }
+      }
+      failed.add(key);
+      return false;
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package sg.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.Multiset;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class SolveSessionTest {
+  private static final int MAX_DICE = 4;
+  private static final int SIDES = PackedRollSet.FACES;
+  private static final SearchBudget BUDGET = SearchBudget.unlimited();
+
+  private final Map<Multiset<Integer>, Map<Targets, Boolean>> expected = new HashMap<>();
+  private final Map<Resolution, Integer> resolutions = new EnumMap<>(Resolution.class);
+
+  // Every die of every small roll is rerolled to every face and back, and every face is added,
+  // at every level. Each answer has to check out from its string and be found exactly when the
+  // reference search finds one, whether it came from the tables, a repair or a fresh search.
+  @Test
+  public void rerollAndAddSolveTheChangedRoll() {
+    for (Multiset<Integer> rollSet : SearchEngineTest.rollSets(MAX_DICE, SIDES)) {
+      for (Targets targets : Targets.values()) {
+        SolveSession session = new SolveSession();
+        check(session, targets, session.solve(RollCounts.of(rollSet), targets, BUDGET));
+        for (int die : rollSet.elementSet()) {
+          for (int face = 1; face <= SIDES; face++) {
+            check(session, targets, session.reroll(die, face, BUDGET));
+            check(session, targets, session.reroll(face, die, BUDGET));
+          }
+        }
+        for (int face = 1; face <= SIDES; face++) {
+          check(session, targets, session.add(face, BUDGET));
+          check(session, targets, session.solve(RollCounts.of(rollSet), targets, BUDGET));
+        }
+      }
+    }
+    assertTrue("nothing was repaired: " + resolutions, resolutions.containsKey(Resolution.REPAIR));
+  }
+
+  private void check(SolveSession session, Targets targets, SolveResult result) {
+    Multiset<Integer> rollSet = session.rolls().toRollSet();
+    boolean solves =
+        expected
+            .computeIfAbsent(rollSet, r -> new EnumMap<>(Targets.class))
+            .computeIfAbsent(
+                targets, t -> SearchEngineTest.Reference.solves(rollSet, t.targetValues()));
+    assertEquals(
+        rollSet + " at " + targets,
+        solves ? SolveResult.Status.SOLVED : SolveResult.Status.UNSOLVABLE,
+        result.status());
+    if (solves) {
+      SearchEngineTest.assertSolves(rollSet, targets, result.expression());
+    }
+    resolutions.merge(result.resolution(), 1, Integer::sum);
+  }
+}